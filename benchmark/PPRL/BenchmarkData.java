@@ -0,0 +1,47 @@
+package PPRL;
+
+/**
+ * Fixed-seed synthetic datasets for the JMH benchmarks in this folder. The benchmarks are built and run with the
+ * benchmark profile:
+ * <pre>
+ *     mvn -P benchmark package -DskipTests
+ *     java -jar target/benchmarks.jar -prof gc -rf json -rff target/jmh-result.json
+ * </pre>
+ * -prof gc reports the allocation rate and GC counts per benchmark, and the JSON results of two versions can be
+ * diffed. Select benchmarks by regex, e.g. "java -jar target/benchmarks.jar Similarity -p hashAreaSize=1024".
+ * For end-to-end scaling curves, see ScalingDriver.
+ */
+final class BenchmarkData {
+
+    static final long SEED = 42;
+    static final EncoderParams ENCODER_PARAMS = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 1024, 10);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Sets the schema of Person as Launcher does.
+     */
+    static void setSchema() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+    }
+
+    /**
+     * Generates a dataset of size records, half of them in source A and half in source B, see SyntheticDataGenerator.
+     * The given share of the records of B are corrupted copies of records of A.
+     */
+    static ColumnarDataset generate(int size, double duplicateRate) {
+        setSchema();
+        return new SyntheticDataGenerator(new SyntheticDataParams(size, duplicateRate, 0.2, 0.05, 0.05, 1.0, SEED)).toDataset();
+    }
+
+    /**
+     * Encodes the records of the given dataset with ENCODER_PARAMS, without reading or writing a storage file.
+     */
+    static FilterSlab encode(ColumnarDataset dataSet) {
+        Encoder encoder = new Encoder(dataSet, ENCODER_PARAMS, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        return encoder.getFilterSlab();
+    }
+}
@@ -0,0 +1,35 @@
+package PPRL;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the blocking index with the default blocking keys, serial and parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private ColumnarDataset dataSet;
+
+    @Setup
+    public void setup() {
+        dataSet = BenchmarkData.generate(size, 0.5);
+    }
+
+    @Benchmark
+    public BlockingIndex getBlockingIndex() {
+        return new Blocker(true, false, parallel).getBlockingIndex(dataSet);
+    }
+}
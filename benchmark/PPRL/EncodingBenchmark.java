@@ -0,0 +1,59 @@
+package PPRL;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of one record into a Bloom filter per hashing mode, without the bigram cache, so each bigram is hashed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param
+    public HashingMode hashingMode;
+
+    private BigramHasher hasher;
+    private String[][] records;
+    private int[] k;
+    private int next;
+
+    @Setup
+    public void setup() {
+        ColumnarDataset dataSet = BenchmarkData.generate(1024, 0.0);
+        EncoderParams parameters = BenchmarkData.ENCODER_PARAMS;
+        // random hashing seeds its generator with the salt, which must therefore be a number
+        String tokenSalting = hashingMode == HashingMode.RANDOM_HASHING ? String.valueOf(BenchmarkData.SEED)
+                : parameters.tokenSalting();
+        hasher = new BigramHasher(hashingMode, tokenSalting, parameters.h1(), parameters.h2(), parameters.l());
+        String[] attributes = Person.attributeWeights.keySet().stream()
+                .filter(attribute -> Person.attributeWeights.get(attribute) != 0.0)
+                .toArray(String[]::new);
+        k = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++) {
+            k[i] = (int) (parameters.k() * Person.attributeWeights.get(attributes[i]));
+        }
+        records = new String[dataSet.size()][attributes.length];
+        for (int record = 0; record < dataSet.size(); record++) {
+            for (int i = 0; i < attributes.length; i++) {
+                records[record][i] = dataSet.getValue(record, dataSet.attributeIndex(attributes[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public BloomFilter storeRecord() {
+        String[] record = records[next];
+        next = (next + 1) % records.length;
+        BloomFilter bloomFilter = new BloomFilter(BenchmarkData.ENCODER_PARAMS.k(), hasher);
+        for (int i = 0; i < record.length; i++) {
+            if (k[i] > 0) bloomFilter.store(record[i], k[i]);
+        }
+        return bloomFilter;
+    }
+}
@@ -0,0 +1,42 @@
+package PPRL;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Linking of fixed-seed synthetic blocks per linking mode. The records are encoded and blocked once per trial, so only
+ * the Matcher is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LinkingBenchmark {
+
+    @Param
+    public LinkingMode linkingMode;
+
+    @Param({"20000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private Matcher matcher;
+
+    @Setup
+    public void setup() {
+        ColumnarDataset dataSet = BenchmarkData.generate(size, 0.5);
+        FilterSlab filters = BenchmarkData.encode(dataSet);
+        BlockingIndex blockingIndex = new Blocker(true, false, false).getBlockingIndex(dataSet);
+        matcher = new Matcher(dataSet, new MatcherParams(linkingMode, true, 0.7), filters, blockingIndex, "A", "B", parallel);
+    }
+
+    @Benchmark
+    public Linking getLinking() {
+        return matcher.getLinking();
+    }
+}
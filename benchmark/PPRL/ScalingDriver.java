@@ -0,0 +1,133 @@
+package PPRL;
+
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Runs the pipeline of Launcher.prepare() and getLinking() stage by stage on synthetic datasets of increasing size and
+ * with increasing thread counts, and writes wall time, peak heap and throughput of each stage to a CSV file:
+ * <pre>
+ *     mvn -P benchmark package -DskipTests
+ *     java -Xmx8g -cp target/benchmarks.jar PPRL.ScalingDriver -sizes 10000,100000,1000000 -threads 1,4,16
+ * </pre>
+ * Each run is executed in a ForkJoinPool with the given number of threads, which the parallel streams of all stages
+ * use. The peak heap is the sum of the peak usages of the heap memory pools during the stage, after a GC before the
+ * run. Units are records for generating, encoding and blocking, and compared record pairs for matching.
+ */
+public class ScalingDriver {
+
+    private static final String HEADER = "size,threads,stage,seconds,peak_heap_mb,units,units_per_second,matches,true_matches";
+
+    public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+        CommandLine cmd = getCommandLine(args);
+        int[] sizes = parseInts(cmd.getOptionValue("sizes", "10000,100000,1000000"));
+        int[] threadCounts = parseInts(cmd.getOptionValue("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        double t = Double.parseDouble(cmd.getOptionValue("t", "0.7"));
+        long seed = Long.parseLong(cmd.getOptionValue("seed", "42"));
+        File out = new File(cmd.getOptionValue("o", "target/scaling.csv"));
+        if (out.getParentFile() != null) Files.createDirectories(out.getParentFile().toPath());
+        ProgressHandler.setQuiet(true);
+        try (PrintWriter writer = new PrintWriter(new FileWriter(out))) {
+            writer.println(HEADER);
+            System.out.println(HEADER);
+            for (int size : sizes) {
+                for (int threads : threadCounts) {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    try {
+                        List<String> rows = pool.submit(() -> run(size, threads, t, seed)).get();
+                        rows.forEach(writer::println);
+                        rows.forEach(System.out::println);
+                        writer.flush();
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            }
+        }
+        System.out.println("Results written to " + out);
+    }
+
+    private static List<String> run(int size, int threads, double t, long seed) {
+        System.gc();
+        Stage<ColumnarDataset> generate = Stage.measure(() ->
+                new SyntheticDataGenerator(SyntheticDataParams.withDefaults(size, seed)).toDataset());
+        ColumnarDataset dataSet = generate.result;
+        Stage<FilterSlab> encode = Stage.measure(() -> {
+            Encoder encoder = new Encoder(dataSet, BenchmarkData.ENCODER_PARAMS, System.getProperty("java.io.tmpdir"));
+            encoder.createPbmIfNotExist(true);
+            return encoder.getFilterSlab();
+        });
+        Stage<BlockingIndex> block = Stage.measure(() ->
+                new Blocker(true, false, true).getBlockingIndex(dataSet, encode.result));
+        Matcher matcher = new Matcher(dataSet, new MatcherParams(LinkingMode.POLYGAMOUS, true, t), encode.result,
+                block.result, "A", "B", true);
+        Stage<Linking> match = Stage.measure(matcher::getLinking);
+        Linking linking = match.result;
+        int globalID = dataSet.attributeIndex("globalID");
+        long trueMatches = 0;
+        for (int i = 0; i < linking.size(); i++) {
+            if (dataSet.getCode(linking.getA(i), globalID) == dataSet.getCode(linking.getB(i), globalID)) trueMatches++;
+        }
+        String prefix = size + "," + threads + ",";
+        return List.of(
+                prefix + generate.format("generate", size) + ",,",
+                prefix + encode.format("encode", size) + ",,",
+                prefix + block.format("block", size) + ",,",
+                prefix + match.format("match", matcher.getComparisons()) + "," + linking.size() + "," + trueMatches);
+    }
+
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static CommandLine getCommandLine(String[] args) {
+        Options options = new Options();
+        options.addOption("sizes", true, "Comma separated dataset sizes, default 10000,100000,1000000.");
+        options.addOption("threads", true, "Comma separated thread counts, default the number of processors.");
+        options.addOption("t", true, "Similarity threshold, default 0.7.");
+        options.addOption("seed", true, "Seed of the synthetic datasets, default 42.");
+        options.addOption("o", true, "CSV file to write the results into, default target/scaling.csv.");
+        try {
+            return new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            new HelpFormatter().printHelp("ScalingDriver", options);
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Result, wall time and peak heap of one stage.
+     */
+    private record Stage<T>(T result, double seconds, long peakHeapBytes) {
+
+        static <T> Stage<T> measure(Supplier<T> stage) {
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+            heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+            long start = System.nanoTime();
+            T result = stage.get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long peak = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            return new Stage<>(result, seconds, peak);
+        }
+
+        String format(String name, long units) {
+            return String.format(Locale.ROOT, "%s,%.3f,%d,%d,%.0f", name, seconds, peakHeapBytes >> 20, units, units / Math.max(seconds, 1e-9));
+        }
+    }
+}
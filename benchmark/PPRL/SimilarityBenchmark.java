@@ -0,0 +1,88 @@
+package PPRL;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jaccard and Dice similarity of Bloom filter pairs across hash area sizes, on BloomFilter objects and on a FilterSlab.
+ * Each invocation compares PAIRS random pairs of FILTERS filters, so the score is per pair. The one-vs-many
+ * benchmarks compare one filter with PAIRS candidates through the batch kernels of FilterSlab, as in block-wise matching.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimilarityBenchmark {
+
+    private static final int FILTERS = 4096;
+    private static final int PAIRS = 1024;
+
+    @Param({"512", "1024", "2048", "4096"})
+    public int hashAreaSize;
+
+    private BloomFilter[] bloomFilters;
+    private FilterSlab slab;
+    private int[] a, b;
+    private int[] matches;
+    private double[] similarities;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(BenchmarkData.SEED);
+        BigramHasher hasher = new BigramHasher(HashingMode.ENHANCED_DOUBLE_HASHING, "seed", "SHA-1", "MD5", hashAreaSize);
+        bloomFilters = new BloomFilter[FILTERS];
+        for (int i = 0; i < FILTERS; i++) {
+            bloomFilters[i] = new BloomFilter(10, hasher);
+            for (int value = 0; value < 12; value++) {
+                bloomFilters[i].store(Integer.toString(random.nextInt(1000), 36) + value, 10);
+            }
+        }
+        slab = FilterSlab.of(bloomFilters);
+        a = random.ints(PAIRS, 0, FILTERS).toArray();
+        b = random.ints(PAIRS, 0, FILTERS).toArray();
+        matches = new int[PAIRS];
+        similarities = new double[PAIRS];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void bloomFilterJaccard(Blackhole blackhole) {
+        for (int i = 0; i < PAIRS; i++) blackhole.consume(bloomFilters[a[i]].computeJaccardSimilarity(bloomFilters[b[i]]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void bloomFilterDice(Blackhole blackhole) {
+        for (int i = 0; i < PAIRS; i++) blackhole.consume(bloomFilters[a[i]].computeDiceSimilarity(bloomFilters[b[i]]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void slabJaccard(Blackhole blackhole) {
+        for (int i = 0; i < PAIRS; i++) blackhole.consume(slab.computeJaccardSimilarity(a[i], b[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void slabDice(Blackhole blackhole) {
+        for (int i = 0; i < PAIRS; i++) blackhole.consume(slab.computeDiceSimilarity(a[i], b[i]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public void slabJaccardOneVsMany(Blackhole blackhole) {
+        slab.computeJaccardSimilarities(a[0], b, 0, PAIRS, similarities);
+        blackhole.consume(similarities);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    public int slabJaccardOneVsManyThreshold() {
+        return slab.filterJaccardSimilarities(a[0], b, 0, PAIRS, 0.7, matches, similarities);
+    }
+}
@@ -0,0 +1,245 @@
+package PPRL;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the bit positions of salted bigrams for one set of encoding parameters (hashing mode, token salting, hash
+ * algorithms and hash area size l).
+ * The digests are reused per thread and reduced to their value modulo l right away, so that all index arithmetic is
+ * done on longs. The resulting positions are identical to computing (h1 + i * h2 ...) mod l on the full digests,
+ * because reducing modulo l commutes with addition and multiplication.
+ */
+public class BigramHasher {
+
+    private static final long RANDOM_MULTIPLIER = 0x5DEECE66DL;
+    private static final long RANDOM_ADDEND = 0xBL;
+    private static final long RANDOM_MASK = (1L << 48) - 1;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    final HashingMode mode;
+    final String tokenSalting;
+    final String h1;
+    final String h2;
+    final int l;
+    private final byte[] saltBytes;
+    private final double[] powers; // 257^i for each char index of a salted bigram, only used for random hashing
+    private final long randomSeed;
+    private final SipHash sipHash; // keyed by the token salting, only used for sip hashing
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Per-thread reusable state, so that hashing a bigram does not allocate.
+     */
+    private class Scratch {
+        final MessageDigest digest1 = usesDigests() ? getDigest(h1) : null;
+        final MessageDigest digest2 = usesDigests() ? getDigest(h2) : null;
+        final MessageDigest digest3 = mode == HashingMode.TRIPLE_HASHING ? getDigest("MD2") : null;
+        final byte[] bigramBytes = new byte[6]; // two chars of up to 3 UTF-8 bytes each
+        final byte[] digestBytes = new byte[64]; // large enough for any digest up to 512 bits
+        int[] positions = new int[0];
+
+        int[] positions(int k) {
+            if (positions.length < k) positions = new int[k];
+            return positions;
+        }
+    }
+
+    public BigramHasher(HashingMode mode, String tokenSalting, String h1, String h2, int l) {
+        if (l <= 0) throw new IllegalArgumentException("Hash area size must be positive.");
+        this.mode = mode;
+        this.tokenSalting = tokenSalting;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.l = l;
+        this.saltBytes = tokenSalting.getBytes(StandardCharsets.UTF_8);
+        this.powers = new double[2 * tokenSalting.length() + 2];
+        for (int i = 0; i < powers.length; i++) {
+            powers[i] = Math.pow(257L, i);
+        }
+        this.randomSeed = mode == HashingMode.RANDOM_HASHING ? Long.parseLong(tokenSalting) : 0L;
+        this.sipHash = mode == HashingMode.SIP_HASHING ? SipHash.fromSecret(tokenSalting) : null;
+        if (usesDigests()) {
+            // fail early on unknown algorithms instead of inside the worker threads
+            getDigest(h1);
+            getDigest(h2);
+        }
+        this.scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    public BigramHasher(EncoderParams parameters) {
+        this(parameters.hashingMode(), parameters.tokenSalting(), parameters.h1(), parameters.h2(), parameters.l());
+    }
+
+    /**
+     * Computes the bit positions of the k simulated hash functions for the salted bigram (c1, c2) into a per-thread
+     * buffer and returns it. Only the first k entries are valid, and only until the next call on the same thread.
+     * Positions may repeat.
+     */
+    int[] positionsInBuffer(char c1, char c2, int k) {
+        Scratch s = scratch.get();
+        int[] positions = s.positions(k);
+        computePositions(s, c1, c2, k, positions);
+        return positions;
+    }
+
+    /**
+     * Returns a new array with the bit positions of the k simulated hash functions for the salted bigram (c1, c2).
+     */
+    public int[] positions(char c1, char c2, int k) {
+        int[] positions = new int[k];
+        computePositions(scratch.get(), c1, c2, k, positions);
+        return positions;
+    }
+
+    private void computePositions(Scratch s, char c1, char c2, int k, int[] out) {
+        switch (mode) {
+            case DOUBLE_HASHING -> positionsDouble(s, c1, c2, k, out);
+            case ENHANCED_DOUBLE_HASHING -> positionsEnhancedDouble(s, c1, c2, k, out);
+            case TRIPLE_HASHING -> positionsTriple(s, c1, c2, k, out);
+            case RANDOM_HASHING -> positionsRandom(c1, c2, k, out);
+            case SIP_HASHING -> positionsSip(s, c1, c2, k, out);
+        }
+    }
+
+    private boolean usesDigests() {
+        return mode != HashingMode.RANDOM_HASHING && mode != HashingMode.SIP_HASHING;
+    }
+
+    /**
+     * h_i(x) = (h1(x) + i * h2(x)) mod l
+     */
+    private void positionsDouble(Scratch s, char c1, char c2, int k, int[] out) {
+        long a = digestModL(s, s.digest1, c1, c2);
+        long b = digestModL(s, s.digest2, c1, c2);
+        for (int i = 0; i < k; i++) {
+            out[i] = (int) a;
+            a = (a + b) % l;
+        }
+    }
+
+    private void positionsEnhancedDouble(Scratch s, char c1, char c2, int k, int[] out) {
+        long a = digestModL(s, s.digest1, c1, c2);
+        long b = digestModL(s, s.digest2, c1, c2);
+        for (int i = 0; i < k; i++) {
+            out[i] = (int) a;
+            a = (a + b) % l;
+            b = (b + i) % l;
+        }
+    }
+
+    /**
+     * h_i(x) = (h1(x) + i * h2(x) + i^2 * h3(x)) mod l
+     */
+    private void positionsTriple(Scratch s, char c1, char c2, int k, int[] out) {
+        long a = digestModL(s, s.digest1, c1, c2);
+        long b = digestModL(s, s.digest2, c1, c2);
+        long c = digestModL(s, s.digest3, c1, c2);
+        for (int i = 0; i < k; i++) {
+            int o = Math.max(2*i - 1, 0); // i-th odd integer: 0, 1, 3, 5, 7, 9, ...
+            out[i] = (int) a;
+            a = (a + b + c * o) % l;
+        }
+    }
+
+    /**
+     * Seeds a linear congruential generator with the salted bigram and draws k positions from it. The generator is the
+     * one specified for java.util.Random, inlined to avoid allocating a Random per bigram.
+     */
+    private void positionsRandom(char c1, char c2, int k, int[] out) {
+        long seed = randomSeed;
+        int i = 0;
+        for (int j = 0; j < tokenSalting.length(); j++) {
+            seed += tokenSalting.charAt(j) * powers[i++];
+        }
+        seed += c1 * powers[i++];
+        seed += c2 * powers[i++];
+        for (int j = 0; j < tokenSalting.length(); j++) {
+            seed += tokenSalting.charAt(j) * powers[i++];
+        }
+        long state = (seed ^ RANDOM_MULTIPLIER) & RANDOM_MASK;
+        for (int n = 0; n < k; n++) {
+            state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+            long high = state >>> (48 - 26);
+            state = (state * RANDOM_MULTIPLIER + RANDOM_ADDEND) & RANDOM_MASK;
+            long low = state >>> (48 - 27);
+            double nextDouble = ((high << 27) + low) * DOUBLE_UNIT;
+            out[n] = (int) (nextDouble * l);
+        }
+    }
+
+    /**
+     * Enhanced double hashing on the two 32-bit halves of the SipHash of the bigram. The salting is not part of the
+     * input because it is the key of the hash function. The bigram is hashed as its two UTF-16 code units, big-endian.
+     */
+    private void positionsSip(Scratch s, char c1, char c2, int k, int[] out) {
+        byte[] bytes = s.bigramBytes;
+        bytes[0] = (byte) (c1 >>> 8);
+        bytes[1] = (byte) c1;
+        bytes[2] = (byte) (c2 >>> 8);
+        bytes[3] = (byte) c2;
+        long hash = sipHash.hash(bytes, 0, 4);
+        long a = (hash & 0xffffffffL) % l;
+        long b = (hash >>> 32) % l;
+        for (int i = 0; i < k; i++) {
+            out[i] = (int) a;
+            a = (a + b) % l;
+            b = (b + i) % l;
+        }
+    }
+
+    /**
+     * Digests tokenSalting + bigram + tokenSalting and returns the digest, read as unsigned big-endian integer, modulo l.
+     */
+    private long digestModL(Scratch s, MessageDigest digest, char c1, char c2) {
+        digest.reset();
+        if (Character.isSurrogate(c1) || Character.isSurrogate(c2)) {
+            // surrogates may pair up with the salting, so encode the salted bigram as a whole like String.getBytes does
+            digest.update((tokenSalting + c1 + c2 + tokenSalting).getBytes(StandardCharsets.UTF_8));
+        } else {
+            int length = encodeUtf8(c1, s.bigramBytes, 0);
+            length = encodeUtf8(c2, s.bigramBytes, length);
+            digest.update(saltBytes);
+            digest.update(s.bigramBytes, 0, length);
+            digest.update(saltBytes);
+        }
+        int digestLength;
+        try {
+            digestLength = digest.digest(s.digestBytes, 0, s.digestBytes.length);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        long value = 0;
+        for (int i = 0; i < digestLength; i++) {
+            value = ((value << 8) | (s.digestBytes[i] & 0xff)) % l;
+        }
+        return value;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a non-surrogate char into the buffer and returns the new end offset.
+     */
+    private static int encodeUtf8(char c, byte[] buffer, int offset) {
+        if (c < 0x80) {
+            buffer[offset++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[offset++] = (byte) (0xc0 | (c >> 6));
+            buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            buffer[offset++] = (byte) (0xe0 | (c >> 12));
+            buffer[offset++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[offset++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return offset;
+    }
+
+    private static MessageDigest getDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("Unknown hash algorithm '" + algorithm + "'", e);
+        }
+    }
+}
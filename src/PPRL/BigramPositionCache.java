@@ -0,0 +1,90 @@
+package PPRL;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, threadsafe memo of the bit positions of salted bigrams.
+ * A cache belongs to exactly one BigramHasher, i.e. to one set of encoder parameters, so the token salting, hashing
+ * mode and hash area size are implicit and entries are only keyed by (bigram, k). Caches of different parameters
+ * never share entries.
+ * Once maxSize entries are stored, further bigrams are hashed but not memoized. As the vocabulary of bigrams is small
+ * this rarely happens, and it keeps the cache free of eviction bookkeeping.
+ */
+public class BigramPositionCache {
+
+    final BigramHasher hasher;
+    private final int maxSize;
+    private final Map<Long, int[]> positions;
+    private final AtomicInteger size;
+    private final LongAdder hits;
+    private final LongAdder misses;
+
+    /**
+     * @param hasher the hasher to compute positions with on a cache miss.
+     * @param maxSize maximum number of memoized (bigram, k) entries. 0 disables memoization.
+     */
+    public BigramPositionCache(BigramHasher hasher, int maxSize) {
+        if (maxSize < 0) throw new IllegalArgumentException("Cache size must not be negative.");
+        this.hasher = hasher;
+        this.maxSize = maxSize;
+        this.positions = new ConcurrentHashMap<>();
+        this.size = new AtomicInteger();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Returns the bit positions of the k simulated hash functions for the salted bigram (c1, c2), computing and storing
+     * them on the first request. The returned array has length k and must not be modified.
+     */
+    public int[] positions(char c1, char c2, int k) {
+        Long key = ((long) c1 << 48) | ((long) c2 << 32) | (k & 0xffffffffL);
+        int[] cached = positions.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        int[] computed = hasher.positions(c1, c2, k);
+        if (size.incrementAndGet() <= maxSize) {
+            if (positions.putIfAbsent(key, computed) != null) size.decrementAndGet();
+        } else {
+            size.decrementAndGet();
+        }
+        return computed;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return positions.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void clear() {
+        positions.clear();
+        size.set(0);
+        hits.reset();
+        misses.reset();
+    }
+
+    @Override
+    public String toString() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return String.format("Bigram cache: %d entries, %d hits, %d misses (%.1f%% hit rate)",
+                size(), hits, total - hits, total == 0 ? 0.0 : 100.0 * hits / total);
+    }
+}
@@ -0,0 +1,169 @@
+package PPRL;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The Bloom filters of the records of each of two sources in the blocks of a BlockingIndex, stored column-major: per
+ * group of 64 records of a source in a block, one word per filter position, whose bit i is that position in the
+ * filter of the i-th record of the group. The intersections of a query filter with all records of the block are then
+ * counted from the words of its set positions only, see intersect(), rather than from all words of each filter.
+ * The records of each source keep the order of the block's postings. Blocks with fewer than MIN_RECORDS records of a
+ * source are not sliced for it, as most of each group would be empty, and are compared row-wise by the Matcher.
+ */
+final class BitSlicedBlocks {
+
+    static final int MIN_RECORDS = 64;
+
+    private final int hashAreaSize;
+    private final int sourceA;
+    private final int[][] records; // per block and source, 2 * block for source A and 2 * block + 1 for source B
+    private final long[][] slices; // likewise, the words of group g at slices[g * hashAreaSize] onwards, or null
+
+    BitSlicedBlocks(BlockingIndex blockingIndex, FilterSlab filters, ColumnarDataset dataSet, int sourceA, int sourceB,
+                    boolean parallel) {
+        this.hashAreaSize = filters.getHashAreaSize();
+        this.sourceA = sourceA;
+        this.records = new int[2 * blockingIndex.numberOfBlocks()][];
+        this.slices = new long[2 * blockingIndex.numberOfBlocks()][];
+        int[] postings = blockingIndex.getPostings();
+        IntStream blocks = IntStream.range(0, blockingIndex.numberOfBlocks());
+        if (parallel) blocks = blocks.parallel();
+        blocks.forEach(block -> {
+            int start = blockingIndex.start(block), end = blockingIndex.end(block);
+            for (int source : new int[]{sourceA, sourceB}) {
+                int size = 0;
+                for (int i = start; i < end; i++) {
+                    if (dataSet.getSourceCode(postings[i]) == source) size++;
+                }
+                if (size < MIN_RECORDS) continue;
+                int[] blockRecords = new int[size];
+                size = 0;
+                for (int i = start; i < end; i++) {
+                    if (dataSet.getSourceCode(postings[i]) == source) blockRecords[size++] = postings[i];
+                }
+                records[index(block, source)] = blockRecords;
+                slices[index(block, source)] = slice(blockRecords, filters);
+            }
+        });
+    }
+
+    private long[] slice(int[] blockRecords, FilterSlab filters) {
+        long[] words = new long[(blockRecords.length + 63) / 64 * hashAreaSize];
+        for (int i = 0; i < blockRecords.length; i++) {
+            int group = (i >>> 6) * hashAreaSize, offset = filters.offset(blockRecords[i]);
+            for (int word = 0; word < filters.wordsPerFilter; word++) {
+                for (long bits = filters.words[offset + word]; bits != 0; bits &= bits - 1) {
+                    words[group + 64 * word + Long.numberOfTrailingZeros(bits)] |= 1L << (i & 63);
+                }
+            }
+        }
+        return words;
+    }
+
+    private int index(int block, int source) {
+        return source == sourceA ? 2 * block : 2 * block + 1;
+    }
+
+    /**
+     * @return the records of the given source, sourceA or sourceB, in the given block, or null if it is not sliced.
+     * Must not be modified.
+     */
+    int[] getRecords(int block, int source) {
+        return records[index(block, source)];
+    }
+
+    /**
+     * Counts the bits the query filter shares with the filter of each record of the given source in the given block,
+     * which must be sliced, and writes them into intersections, in the order of getRecords(). Each group of 64 records
+     * keeps its counts in bit-sliced form: bit i of counters[p] is bit p of the count of the i-th record. The words of
+     * the query positions are summed sixteen at a time by a fixed tree of carry-save adders into the lowest four
+     * planes (Harley-Seal), so that only one word in sixteen is carried into the higher planes in a loop whose length
+     * depends on the data.
+     * @param positions the set positions of the query filter in positions[0] to positions[cardinality - 1].
+     * @param counters buffer of at least planes() words.
+     */
+    void intersect(int block, int source, int[] positions, int cardinality, long[] counters, int[] intersections) {
+        int[] blockRecords = records[index(block, source)];
+        long[] words = slices[index(block, source)];
+        int planes = planes();
+        for (int group = 0; 64 * group < blockRecords.length; group++) {
+            int offset = group * hashAreaSize;
+            Arrays.fill(counters, 0, planes, 0L);
+            long ones = 0, twos = 0, fours = 0, eights = 0;
+            int i = 0;
+            for (; i + 16 <= cardinality; i += 16) {
+                long a, b, sum, twosA, twosB, foursA, foursB, eightsA, eightsB;
+                // each step adds a and b to the plane on the left and yields its carry, like a full adder per bit
+                a = words[offset + positions[i]]; b = words[offset + positions[i + 1]];
+                sum = ones ^ a; twosA = ones & a | sum & b; ones = sum ^ b;
+                a = words[offset + positions[i + 2]]; b = words[offset + positions[i + 3]];
+                sum = ones ^ a; twosB = ones & a | sum & b; ones = sum ^ b;
+                sum = twos ^ twosA; foursA = twos & twosA | sum & twosB; twos = sum ^ twosB;
+                a = words[offset + positions[i + 4]]; b = words[offset + positions[i + 5]];
+                sum = ones ^ a; twosA = ones & a | sum & b; ones = sum ^ b;
+                a = words[offset + positions[i + 6]]; b = words[offset + positions[i + 7]];
+                sum = ones ^ a; twosB = ones & a | sum & b; ones = sum ^ b;
+                sum = twos ^ twosA; foursB = twos & twosA | sum & twosB; twos = sum ^ twosB;
+                sum = fours ^ foursA; eightsA = fours & foursA | sum & foursB; fours = sum ^ foursB;
+                a = words[offset + positions[i + 8]]; b = words[offset + positions[i + 9]];
+                sum = ones ^ a; twosA = ones & a | sum & b; ones = sum ^ b;
+                a = words[offset + positions[i + 10]]; b = words[offset + positions[i + 11]];
+                sum = ones ^ a; twosB = ones & a | sum & b; ones = sum ^ b;
+                sum = twos ^ twosA; foursA = twos & twosA | sum & twosB; twos = sum ^ twosB;
+                a = words[offset + positions[i + 12]]; b = words[offset + positions[i + 13]];
+                sum = ones ^ a; twosA = ones & a | sum & b; ones = sum ^ b;
+                a = words[offset + positions[i + 14]]; b = words[offset + positions[i + 15]];
+                sum = ones ^ a; twosB = ones & a | sum & b; ones = sum ^ b;
+                sum = twos ^ twosA; foursB = twos & twosA | sum & twosB; twos = sum ^ twosB;
+                sum = fours ^ foursA; eightsB = fours & foursA | sum & foursB; fours = sum ^ foursB;
+                sum = eights ^ eightsA; long sixteens = eights & eightsA | sum & eightsB; eights = sum ^ eightsB;
+                add(counters, 4, sixteens);
+            }
+            counters[0] = ones;
+            counters[1] = twos;
+            counters[2] = fours;
+            counters[3] = eights;
+            for (; i < cardinality; i++) add(counters, 0, words[offset + positions[i]]);
+            int first = 64 * group, end = Math.min(first + 64, blockRecords.length);
+            Arrays.fill(intersections, first, end, 0);
+            for (int plane = 0; plane < planes; plane++) {
+                for (long bits = counters[plane]; bits != 0; bits &= bits - 1) {
+                    intersections[first + Long.numberOfTrailingZeros(bits)] += 1 << plane;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds 2^plane to the counts of the lanes set in the given word, by a ripple carry from the given plane upwards.
+     */
+    private static void add(long[] counters, int plane, long carry) {
+        for (; carry != 0; plane++) {
+            long counter = counters[plane];
+            counters[plane] = counter ^ carry;
+            carry &= counter;
+        }
+    }
+
+    /**
+     * @return the number of bit planes that hold the count of a group, at least the four summed by intersect().
+     */
+    int planes() {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(hashAreaSize));
+    }
+
+    /**
+     * Writes the set positions of the filter of the given record into positions, ascending.
+     * @return their number, the cardinality of the filter.
+     */
+    static int getPositions(FilterSlab filters, int record, int[] positions) {
+        int offset = filters.offset(record), size = 0;
+        for (int word = 0; word < filters.wordsPerFilter; word++) {
+            for (long bits = filters.words[offset + word]; bits != 0; bits &= bits - 1) {
+                positions[size++] = 64 * word + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return size;
+    }
+}
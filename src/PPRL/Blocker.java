@@ -1,78 +1,227 @@
 package PPRL;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Stream;
-
-import static java.util.Map.entry;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 public class Blocker {
 
     boolean blockingCheat, blocking, parallel;
     ProgressHandler progressHandler;
+    private volatile BlockingKeyEncoder[] blockingKeyEncoders; // created on first use, see getBlockingKeyEncoders()
+    private volatile BlockingKeyEncoder[] cheatEncoders;
+    LshParams lshParams;
+    LshBlocker lshBlocker;
 
     public Blocker(boolean blocking, boolean blockingCheat, boolean parallel) {
+        this(blocking, blockingCheat, parallel, null);
+    }
+
+    /**
+     * @param lshParams if set, records are blocked by LSH of their Bloom filters instead of their plaintext attributes,
+     *                  see LshBlocker. Only the methods that take the Bloom filters apply it.
+     */
+    public Blocker(boolean blocking, boolean blockingCheat, boolean parallel, LshParams lshParams) {
         this.blocking = blocking;
         this.blockingCheat = blockingCheat;
         this.parallel = parallel;
+        this.lshParams = lshParams;
     }
 
     /**
-     * Creates blockingKeyEncoders and assigns each entry in given dataset to a blocking key and returns the resulting map. If blocking is turned off, maps
-     * all records to the same blocking key "DUMMY_VALUE".
+     * Creates blockingKeyEncoders and assigns each entry in given dataset to its blocking keys and returns the resulting
+     * index. If blocking is turned off, all records are in the same block with key "DUMMY_VALUE".
      *
-     * @return a map that maps each blocking key to a set of records encoded by that key.
+     * @return an index of each blocking key to the IDs of the records encoded by that key.
      */
-    public Map<String, Set<Person>> getBlockingMap(Person[] dataSet) {
-        this.progressHandler = new ProgressHandler(dataSet.length, 1);
-        return getBlockingMap(dataSet, getBlockingKeyEncoders());
+    public BlockingIndex getBlockingIndex(ColumnarDataset dataSet) {
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
+        return getBlockingIndex(dataSet, getBlockingKeyEncoders());
     }
 
     /**
-     * Assigns each entry in given dataset to a blocking key and returns the resulting map. If blocking is turned off, maps
-     * all records to the same blocking key "DUMMY_VALUE".
+     * Assigns each entry in given dataset to its blocking keys and returns the resulting index. If blocking is turned
+     * off, all records are in the same block with key "DUMMY_VALUE".
      *
-     * @return a map that maps each blocking key to a set of records encoded by that key.
+     * @return an index of each blocking key to the IDs of the records encoded by that key.
      */
-    public Map<String, Set<Person>> getBlockingMap(Person[] dataSet, BlockingKeyEncoder... blockingKeyEncoders) {
-        Map<String, Set<Person>> blockingMap;
+    public BlockingIndex getBlockingIndex(ColumnarDataset dataSet, BlockingKeyEncoder... blockingKeyEncoders) {
         if (!blocking) {
-            return Map.ofEntries(entry("DUMMY_VALUE", new HashSet<>(Arrays.asList(dataSet))));
+            return BlockingIndex.singleBlock("DUMMY_VALUE", dataSet.size());
         }
+        return buildIndex(dataSet.size(), record -> getBlockingKeys(dataSet, record, blockingKeyEncoders));
+    }
+
+    /**
+     * Creates the blocking index of the dataset with the given Bloom filters. If LSH parameters are set, the records are
+     * blocked by LSH of their filters, plus their globalID if blockingCheat is turned on. Otherwise, this is the same as
+     * getBlockingIndex(dataSet).
+     *
+     * @return an index of each blocking key to the IDs of the records encoded by that key.
+     */
+    public BlockingIndex getBlockingIndex(ColumnarDataset dataSet, FilterSlab filters) {
+        if (!blocking || lshParams == null) return getBlockingIndex(dataSet);
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
+        LshBlocker lshBlocker = getLshBlocker(filters.getHashAreaSize());
+        BlockingKeyEncoder[] cheatEncoders = getCheatEncoders();
+        return buildIndex(dataSet.size(), record ->
+                concat(lshBlocker.getBlockingKeys(filters, record), getBlockingKeys(dataSet, record, cheatEncoders)));
+    }
+
+    private BlockingIndex buildIndex(int size, IntFunction<String[]> blockingKeys) {
         System.out.println("Creating Blocking Keys...");
+        if (progressHandler == null) progressHandler = new ProgressHandler(size, 1);
         progressHandler.reset();
-        progressHandler.setTotalSize(dataSet.length);
-        blockingMap = mapRecordsToBlockingKeys(dataSet, progressHandler, blockingKeyEncoders);
-        progressHandler.finish();
-        return blockingMap;
+        progressHandler.setTotalSize(size);
+        BlockingIndex blockingIndex;
+        try {
+            blockingIndex = BlockingIndex.build(size, record -> {
+                String[] keys = blockingKeys.apply(record);
+                progressHandler.updateProgress();
+                return keys;
+            }, parallel);
+            progressHandler.finish();
+        } finally {
+            progressHandler.close();
+        }
+        System.out.println(blockingIndex.getStatistics());
+        return blockingIndex;
+    }
+
+    /**
+     * Returns the blocking keys of a single record, so that the blocking map can be built while streaming the dataset.
+     * If blocking is turned off, the only key is "DUMMY_VALUE".
+     */
+    public String[] getBlockingKeys(ColumnarDataset dataSet, int record) {
+        if (!blocking) return new String[]{"DUMMY_VALUE"};
+        return getBlockingKeys(dataSet, record, getBlockingKeyEncoders());
+    }
+
+    /**
+     * Like getBlockingKeys(dataSet, record), but applies LSH to the record's Bloom filter if LSH parameters are set.
+     */
+    public String[] getBlockingKeys(ColumnarDataset dataSet, int record, BloomFilter bloomFilter) {
+        if (!blocking || lshParams == null) return getBlockingKeys(dataSet, record);
+        LshBlocker lshBlocker = getLshBlocker(bloomFilter.getHashAreaSize());
+        return concat(lshBlocker.getBlockingKeys(bloomFilter), getBlockingKeys(dataSet, record, getCheatEncoders()));
     }
 
+    private synchronized LshBlocker getLshBlocker(int hashAreaSize) {
+        if (lshBlocker == null) {
+            lshBlocker = new LshBlocker(lshParams, hashAreaSize);
+            System.out.println(lshBlocker);
+        }
+        return lshBlocker;
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        if (b.length == 0) return a;
+        String[] keys = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, keys, a.length, b.length);
+        return keys;
+    }
+
+    private String[] getBlockingKeys(ColumnarDataset dataSet, int record, BlockingKeyEncoder[] blockingKeyEncoders) {
+        String[] keys = new String[blockingKeyEncoders.length];
+        for (int i = 0; i < blockingKeyEncoders.length; i++) {
+            keys[i] = blockingKeyEncoders[i].encode(dataSet, record);
+        }
+        return keys;
+    }
+
+    /**
+     * @return the blocking key encoders of the plaintext attributes, followed by the cheat encoders. They are created on
+     * first call, which may come from several threads at once, and shared afterwards.
+     */
     private BlockingKeyEncoder[] getBlockingKeyEncoders() {
+        BlockingKeyEncoder[] encoders = blockingKeyEncoders;
+        if (encoders == null) {
+            synchronized (this) {
+                if (blockingKeyEncoders == null) blockingKeyEncoders = createBlockingKeyEncoders();
+                encoders = blockingKeyEncoders;
+            }
+        }
+        return encoders;
+    }
+
+    /**
+     * @return the encoders of the blocking keys added if blockingCheat is turned on, created on first call like
+     * getBlockingKeyEncoders().
+     */
+    private BlockingKeyEncoder[] getCheatEncoders() {
+        BlockingKeyEncoder[] encoders = cheatEncoders;
+        if (encoders == null) {
+            synchronized (this) {
+                if (cheatEncoders == null) cheatEncoders = createCheatEncoders();
+                encoders = cheatEncoders;
+            }
+        }
+        return encoders;
+    }
+
+    private BlockingKeyEncoder[] createBlockingKeyEncoders() {
         // create the blockingKeyEncoders to generate the blockingMap
         List<BlockingKeyEncoder> blockingKeyEncoders = new ArrayList<>();
-        blockingKeyEncoders.add(person -> person.getSoundex("firstName").concat(person.getAttributeValue("yearOfBirth")));
-        blockingKeyEncoders.add(person -> person.getSoundex("lastName").concat(person.getAttributeValue("yearOfBirth")));
-        blockingKeyEncoders.add(person -> person.getSoundex("firstName").concat(person.getSoundex("lastName")));
-        // If blockingCheat turned on, use globalID as additional blocking key to avoid false negatives due to blocking
-        if (blockingCheat) blockingKeyEncoders.add(person -> person.getAttributeValue("globalID"));
+        blockingKeyEncoders.add(new AttributeKeyEncoder(KeyPart.soundex("firstName"), KeyPart.value("yearOfBirth")));
+        blockingKeyEncoders.add(new AttributeKeyEncoder(KeyPart.soundex("lastName"), KeyPart.value("yearOfBirth")));
+        blockingKeyEncoders.add(new AttributeKeyEncoder(KeyPart.soundex("firstName"), KeyPart.soundex("lastName")));
+        blockingKeyEncoders.addAll(Arrays.asList(getCheatEncoders()));
         return blockingKeyEncoders.toArray(BlockingKeyEncoder[]::new);
     }
 
+    private BlockingKeyEncoder[] createCheatEncoders() {
+        // If blockingCheat turned on, use globalID as additional blocking key to avoid false negatives due to blocking
+        if (!blockingCheat) return new BlockingKeyEncoder[0];
+        return new BlockingKeyEncoder[]{new AttributeKeyEncoder(KeyPart.value("globalID"))};
+    }
+
+    private record KeyPart(String attributeName, boolean soundex) {
+        static KeyPart value(String attributeName) {
+            return new KeyPart(attributeName, false);
+        }
+
+        static KeyPart soundex(String attributeName) {
+            return new KeyPart(attributeName, true);
+        }
+    }
+
     /**
-     * Helper method for getBlockingMap.
+     * Blocking key that concatenates the values or soundex codes of some attributes. On a ColumnarDataset the attribute
+     * indices are resolved once and the soundex is computed once per distinct value.
      */
-    private ConcurrentHashMap<String, Set<Person>> mapRecordsToBlockingKeys(Person[] dataSet, ProgressHandler progressHandler, BlockingKeyEncoder... blockingKeyEncoders) {
-        ConcurrentHashMap<String, Set<Person>> blockingMap = new ConcurrentHashMap<>();
-        Stream<Person> stream = Arrays.stream(dataSet);
-        if (parallel) stream = stream.parallel();
-        stream.forEach(person -> {
-            for (BlockingKeyEncoder blockingKeyEncoder : blockingKeyEncoders) {
-                String blockingKey = blockingKeyEncoder.encode(person);
-                blockingMap.putIfAbsent(blockingKey, new HashSet<>());
-                blockingMap.get(blockingKey).add(person);
+    private static class AttributeKeyEncoder implements BlockingKeyEncoder {
+
+        private final KeyPart[] parts;
+        private final int[] attributes;
+
+        AttributeKeyEncoder(KeyPart... parts) {
+            this.parts = parts;
+            this.attributes = Arrays.stream(parts)
+                    .mapToInt(part -> Arrays.asList(Person.attributeNames).indexOf(part.attributeName()))
+                    .toArray();
+        }
+
+        @Override
+        public String encode(Person p) {
+            StringBuilder key = new StringBuilder();
+            for (KeyPart part : parts) {
+                key.append(part.soundex() ? p.getSoundex(part.attributeName()) : p.getAttributeValue(part.attributeName()));
+            }
+            return key.toString();
+        }
+
+        @Override
+        public String encode(ColumnarDataset dataSet, int record) {
+            if (parts.length == 1) return value(dataSet, record, 0);
+            StringBuilder key = new StringBuilder();
+            for (int i = 0; i < parts.length; i++) {
+                key.append(value(dataSet, record, i));
             }
-            progressHandler.updateProgress();
-        });
-        return blockingMap;
+            return key.toString();
+        }
+
+        private String value(ColumnarDataset dataSet, int record, int part) {
+            return parts[part].soundex() ? dataSet.getSoundex(record, attributes[part]) : dataSet.getValue(record, attributes[part]);
+        }
     }
 }
@@ -0,0 +1,259 @@
+package PPRL;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Inverted index of blocking keys to the IDs of their records. Each distinct key is stored once and gets a dense block
+ * ID, in the order of the first record of each key and then of the keys, so that the IDs are the same however the
+ * index is built. The records of all blocks are stored in one posting array, block b owning the range start(b) to
+ * end(b) with its record IDs in ascending order. So the Matcher iterates blocks by ID and reads their records without any copying.
+ * The index is built by splitting the records into chunks that are grouped by key into thread-local buffers, which are
+ * merged once at the end. Nothing is shared while building, so building in parallel is safe.
+ */
+public class BlockingIndex {
+
+    private static final int MIN_CHUNK_SIZE = 1 << 12;
+
+    final int size; // number of records
+    final String[] keys; // blocking key by block ID
+    final int[] blockStarts; // postings of block b are postings[blockStarts[b]] to postings[blockStarts[b + 1] - 1]
+    final int[] postings;
+    private int[] recordStarts; // inverted postings: the blocks of record r are recordBlocks[recordStarts[r]] to
+    private volatile int[] recordBlocks; // recordBlocks[recordStarts[r + 1] - 1] in ascending order, see firstCommonBlock()
+
+    BlockingIndex(int size, String[] keys, int[] blockStarts, int[] postings) {
+        this.size = size;
+        this.keys = keys;
+        this.blockStarts = blockStarts;
+        this.postings = postings;
+    }
+
+    /**
+     * Index of a single block with the given key containing all records 0..size-1.
+     */
+    public static BlockingIndex singleBlock(String key, int size) {
+        return new BlockingIndex(size, new String[]{key}, new int[]{0, size}, IntStream.range(0, size).toArray());
+    }
+
+    /**
+     * Builds the index of the records 0..size-1. Records are added to each block at most once, even if several of their
+     * keys are equal.
+     * @param blockingKeys returns the blocking keys of a record. Must be threadsafe if parallel is set.
+     * @param parallel whether to group the chunks of records in parallel.
+     */
+    public static BlockingIndex build(int size, IntFunction<String[]> blockingKeys, boolean parallel) {
+        int chunks = parallel ? Math.max(1, Math.min(4 * Runtime.getRuntime().availableProcessors(), size / MIN_CHUNK_SIZE)) : 1;
+        IntStream chunkStream = IntStream.range(0, chunks);
+        if (parallel) chunkStream = chunkStream.parallel();
+        List<Map<String, Postings>> localIndices = chunkStream
+                .mapToObj(chunk -> groupChunk(blockingKeys, (int) ((long) size * chunk / chunks), (int) ((long) size * (chunk + 1) / chunks)))
+                .toList();
+        // merge: assign block IDs and sizes, then copy the chunks in order, which keeps the postings sorted. Block IDs are
+        // assigned by the first record of each key, then by key, so they do not depend on how the records were chunked
+        Map<String, Integer> blockIds = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        int[] blockSizes = new int[16];
+        for (Map<String, Postings> localIndex : localIndices) {
+            List<Map.Entry<String, Postings>> entries = new ArrayList<>(localIndex.entrySet());
+            entries.sort(Comparator.comparingInt((Map.Entry<String, Postings> entry) -> entry.getValue().records[0])
+                    .thenComparing(Map.Entry::getKey));
+            for (Map.Entry<String, Postings> entry : entries) {
+                int block = blockIds.computeIfAbsent(entry.getKey(), key -> {
+                    keys.add(key);
+                    return keys.size() - 1;
+                });
+                if (block == blockSizes.length) blockSizes = Arrays.copyOf(blockSizes, 2 * block);
+                blockSizes[block] += entry.getValue().size;
+            }
+        }
+        int[] blockStarts = new int[keys.size() + 1];
+        for (int block = 0; block < keys.size(); block++) {
+            blockStarts[block + 1] = blockStarts[block] + blockSizes[block];
+        }
+        int[] fill = Arrays.copyOf(blockStarts, keys.size());
+        int[] postings = new int[blockStarts[keys.size()]];
+        for (Map<String, Postings> localIndex : localIndices) {
+            localIndex.forEach((key, records) -> {
+                int block = blockIds.get(key);
+                System.arraycopy(records.records, 0, postings, fill[block], records.size);
+                fill[block] += records.size;
+            });
+        }
+        return new BlockingIndex(size, keys.toArray(String[]::new), blockStarts, postings);
+    }
+
+    private static Map<String, Postings> groupChunk(IntFunction<String[]> blockingKeys, int from, int to) {
+        Map<String, Postings> localIndex = new HashMap<>();
+        for (int record = from; record < to; record++) {
+            String[] keys = blockingKeys.apply(record);
+            for (int i = 0; i < keys.length; i++) {
+                if (!isFirstOccurrence(keys, i)) continue;
+                localIndex.computeIfAbsent(keys[i], key -> new Postings()).add(record);
+            }
+        }
+        return localIndex;
+    }
+
+    private static boolean isFirstOccurrence(String[] keys, int i) {
+        for (int j = 0; j < i; j++) {
+            if (keys[j].equals(keys[i])) return false;
+        }
+        return true;
+    }
+
+    public int numberOfBlocks() {
+        return keys.length;
+    }
+
+    public String getKey(int block) {
+        return keys[block];
+    }
+
+    public int blockSize(int block) {
+        return blockStarts[block + 1] - blockStarts[block];
+    }
+
+    /**
+     * @return the position of the first record of the given block in getPostings().
+     */
+    public int start(int block) {
+        return blockStarts[block];
+    }
+
+    /**
+     * @return the position after the last record of the given block in getPostings().
+     */
+    public int end(int block) {
+        return blockStarts[block + 1];
+    }
+
+    /**
+     * @return the record IDs of all blocks, see start() and end(). Must not be modified.
+     */
+    public int[] getPostings() {
+        return postings;
+    }
+
+    /**
+     * @return a copy of the record IDs of the given block.
+     */
+    public int[] getBlock(int block) {
+        return Arrays.copyOfRange(postings, start(block), end(block));
+    }
+
+    /**
+     * Returns the lowest ID of the blocks that contain both records, so that a pair of records sharing several blocks can
+     * be compared in exactly one of them. The blocks of each record are inverted from the postings on first call.
+     * @return the block ID, or -1 if the records do not share a block.
+     */
+    public int firstCommonBlock(int a, int b) {
+        if (recordBlocks == null) invert();
+        int i = recordStarts[a], endA = recordStarts[a + 1];
+        int j = recordStarts[b], endB = recordStarts[b + 1];
+        while (i < endA && j < endB) {
+            int blockA = recordBlocks[i], blockB = recordBlocks[j];
+            if (blockA == blockB) return blockA;
+            if (blockA < blockB) i++;
+            else j++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the IDs of the blocks that contain the given record, in ascending order.
+     */
+    public int[] blocksOf(int record) {
+        if (recordBlocks == null) invert();
+        return Arrays.copyOfRange(recordBlocks, recordStarts[record], recordStarts[record + 1]);
+    }
+
+    /**
+     * @return the number of blocks that contain the given record.
+     */
+    public int numberOfBlocksOf(int record) {
+        if (recordBlocks == null) invert();
+        return recordStarts[record + 1] - recordStarts[record];
+    }
+
+    /**
+     * @return a new index without the blocks that have more than maxBlockSize records. Block IDs are reassigned in the
+     * original order.
+     */
+    public BlockingIndex withoutBlocksLargerThan(int maxBlockSize) {
+        List<String> keptKeys = new ArrayList<>();
+        int[] keptStarts = new int[numberOfBlocks() + 1];
+        int[] keptPostings = new int[postings.length];
+        int kept = 0;
+        for (int block = 0; block < numberOfBlocks(); block++) {
+            if (blockSize(block) > maxBlockSize) continue;
+            System.arraycopy(postings, start(block), keptPostings, keptStarts[kept], blockSize(block));
+            keptStarts[kept + 1] = keptStarts[kept] + blockSize(block);
+            keptKeys.add(keys[block]);
+            kept++;
+        }
+        return new BlockingIndex(size, keptKeys.toArray(String[]::new), Arrays.copyOf(keptStarts, kept + 1),
+                Arrays.copyOf(keptPostings, keptStarts[kept]));
+    }
+
+    private synchronized void invert() {
+        if (recordBlocks != null) return;
+        int[] starts = new int[size + 1];
+        for (int record : postings) starts[record + 1]++;
+        for (int record = 0; record < size; record++) starts[record + 1] += starts[record];
+        int[] fill = Arrays.copyOf(starts, size);
+        int[] blocks = new int[postings.length];
+        for (int block = 0; block < numberOfBlocks(); block++) {
+            for (int i = blockStarts[block]; i < blockStarts[block + 1]; i++) {
+                blocks[fill[postings[i]]++] = block;
+            }
+        }
+        recordStarts = starts;
+        recordBlocks = blocks;
+    }
+
+    public Statistics getStatistics() {
+        int blocks = numberOfBlocks();
+        int[] sizes = new int[blocks];
+        long comparisons = 0;
+        for (int block = 0; block < blocks; block++) {
+            sizes[block] = blockSize(block);
+            comparisons += (long) sizes[block] * sizes[block];
+        }
+        Arrays.sort(sizes);
+        return new Statistics(blocks, postings.length,
+                blocks == 0 ? 0 : sizes[0],
+                blocks == 0 ? 0 : sizes[blocks / 2],
+                blocks == 0 ? 0 : sizes[blocks - 1],
+                blocks == 0 ? 0.0 : 1.0 * postings.length / blocks,
+                (int) Arrays.stream(sizes).filter(size -> size == 1).count(),
+                comparisons);
+    }
+
+    /**
+     * Block size statistics. comparisons is the sum of the squared block sizes, an upper bound of the record pairs the
+     * Matcher compares.
+     */
+    public record Statistics(int blocks, int postings, int minBlockSize, int medianBlockSize, int maxBlockSize,
+                             double meanBlockSize, int singletonBlocks, long comparisons) {
+        @Override
+        public String toString() {
+            return String.format("Blocking index: %d blocks, %d postings, block size min %d / median %d / mean %.1f / max %d, %d singleton blocks, %d comparisons",
+                    blocks, postings, minBlockSize, medianBlockSize, meanBlockSize, maxBlockSize, singletonBlocks, comparisons);
+        }
+    }
+
+    /**
+     * Growable int array of the record IDs of one block in one chunk.
+     */
+    private static final class Postings {
+        int[] records = new int[4];
+        int size;
+
+        void add(int record) {
+            if (size == records.length) records = Arrays.copyOf(records, 2 * size);
+            records[size++] = record;
+        }
+    }
+}
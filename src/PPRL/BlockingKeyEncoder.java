@@ -2,4 +2,12 @@ package PPRL;
 
 public interface BlockingKeyEncoder {
     String encode(Person p);
+
+    /**
+     * Encodes the record with the given ID. By default, the record is materialized as a Person, override to read the
+     * columns directly.
+     */
+    default String encode(ColumnarDataset dataSet, int record) {
+        return encode(dataSet.getPerson(record));
+    }
 }
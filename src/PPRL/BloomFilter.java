@@ -1,28 +1,22 @@
 package PPRL;
 
 import java.io.Serializable;
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
 
 /**
  * Class for hashing and storing string values into a bloom filter.
- * Uses double hashing, enhanced double hashing, triple hashing or random hashing, depending on hashingMode.
+ * Uses double hashing, enhanced double hashing, triple hashing, random hashing or keyed SipHash, depending on hashingMode.
  * Uses bigrams.
+ * The hash area is packed into 64-bit words and the number of set bits is cached, so the similarity coefficients
+ * only need one AND and one popcount per word.
  */
 public class BloomFilter implements Serializable {
 
-    boolean[] hashArea;
+    long[] words; // hash area packed into 64-bit words, bit i is stored in words[i >>> 6]
+    int hashAreaSize;
+    int cardinality; // # of bits set, maintained on every store
     int k; // # of hash functions to be simulated
-    HashingMode mode;
-    String tokenSalting;
-    String h1;
-    String h2;
+    transient BigramHasher hasher;
+    transient BigramPositionCache cache; // optional, looked up before hashing if set
 
     /**
      * Constructor for BloomFilter instance. Hash area is initialized with all 0's.
@@ -30,13 +24,31 @@ public class BloomFilter implements Serializable {
      * @param k The number of hash functions to be simulated through double hashing.
      */
     public BloomFilter(int hashAreaSize, int k, HashingMode mode, String tokenSalting, String h1, String h2) {
-        hashArea = new boolean[hashAreaSize];
-        Arrays.fill(hashArea, false);
+        this(k, new BigramHasher(mode, tokenSalting, h1, h2, hashAreaSize));
+    }
+
+    /**
+     * Constructor for BloomFilter instance sharing the hasher (and with it the per-thread digests) with other filters.
+     * The hash area size is the one of the hasher.
+     * @param k The number of hash functions to be simulated.
+     * @param hasher The hasher computing the bit positions of the bigrams.
+     */
+    public BloomFilter(int k, BigramHasher hasher) {
+        this.hashAreaSize = hasher.l;
+        this.words = new long[wordsFor(hashAreaSize)];
         this.k = k;
-        this.mode = mode;
-        this.tokenSalting = tokenSalting;
-        this.h1 = h1;
-        this.h2 = h2;
+        this.hasher = hasher;
+    }
+
+    /**
+     * Constructor for BloomFilter instance that looks up bigram positions in the given cache before hashing.
+     * The hash area size is the one of the cache's hasher.
+     * @param k The number of hash functions to be simulated.
+     * @param cache The cache of bigram positions, shared with other filters of the same encoder parameters.
+     */
+    public BloomFilter(int k, BigramPositionCache cache) {
+        this(k, cache.hasher);
+        this.cache = cache;
     }
 
     public BloomFilter() {
@@ -52,23 +64,30 @@ public class BloomFilter implements Serializable {
             if (weight == 0.0) continue; // w = 0 means identifying attribute, like IDs
             String attrVal = person.getAttributeValue(attrName);
             int k = weightedAttributes ? (int) (this.k * weight) : this.k;
-            try {
-                store(attrVal, k);
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
-            }
+            store(attrVal, k);
         }
     }
 
     /**
      * Splits given string into bigrams and stores all hash values of each bigram into the hash area, by simulating k
-     * hash functions through double hashing.
+     * hash functions through the hashing mode of the hasher.
+     * The bigrams of "_" + attrValue + "_" are walked in place, without creating substrings.
      * @param attrValue attribute value as string.
      */
-    public void store(String attrValue, int k) throws NoSuchAlgorithmException {
-        List<String> bigrams = getBigrams(attrValue);
-        for (String bigram : bigrams) {
-            storeBigram(bigram, k);
+    public void store(String attrValue, int k) {
+        int length = attrValue.length();
+        char previous = '_';
+        for (int i = 0; i <= length; i++) {
+            char next = i < length ? attrValue.charAt(i) : '_';
+            storeBigram(previous, next, k);
+            previous = next;
+        }
+    }
+
+    private void storeBigram(char c1, char c2, int k) {
+        int[] positions = cache != null ? cache.positions(c1, c2, k) : hasher.positionsInBuffer(c1, c2, k);
+        for (int i = 0; i < k; i++) {
+            set(positions[i]);
         }
     }
 
@@ -79,19 +98,9 @@ public class BloomFilter implements Serializable {
      * @return the similarity coefficient
      */
     public double computeJaccardSimilarity(BloomFilter other) {
-        if (other.getHashArea().length != hashArea.length) {
-            throw new IllegalArgumentException("Bloom filters must have same hash area size.");
-        }
-        int union = 0;
-        int intersect = 0;
-        for (int i = 0; i < hashArea.length; i++) {
-            if (hashArea[i] && other.getHashArea()[i]) {
-                intersect++;
-            } if (hashArea[i] || other.getHashArea()[i]) {
-                union++;
-            }
-        }
-        return 1.0 * intersect / union;
+        checkSameSize(other);
+        int intersect = intersectionCardinality(other);
+        return 1.0 * intersect / (cardinality + other.cardinality - intersect);
     }
 
     /**
@@ -101,127 +110,80 @@ public class BloomFilter implements Serializable {
      * @return the similarity coefficient
      */
     public double computeDiceSimilarity(BloomFilter other) {
-        if (other.getHashArea().length != hashArea.length) {
-            throw new IllegalArgumentException("Bloom filters must have same hash area size.");
-        }
-        int unionWithDuplicates = 0; // |X| + |Y|
-        int intersect = 0;
-        for (int i = 0; i < hashArea.length; i++) {
-            if (hashArea[i] && other.getHashArea()[i]) {
-                intersect++;
-                unionWithDuplicates++;
-            } if (hashArea[i] || other.getHashArea()[i]) {
-                unionWithDuplicates++;
-            }
-        }
-        return 2.0 * intersect / unionWithDuplicates;
-    }
-
-    public boolean[] getHashArea() {
-        return hashArea;
+        checkSameSize(other);
+        int intersect = intersectionCardinality(other);
+        return 2.0 * intersect / (cardinality + other.cardinality);
     }
 
     /**
-     * Generates from a given string the bigrams and returns them.
-     * @param attrValue attribute value as string.
-     * @return ArrayList of bigrams as strings.
+     * Counts the bits set in both this and the other Bloom filter by AND-ing the words and counting the ones.
      */
-    private List<String> getBigrams(String attrValue) {
-        List<String> bigrams = new ArrayList<>();
-        String paddedAttrValue = "_" + attrValue + "_";
-        for (int i = 0; i < paddedAttrValue.length() - 1; i++) {
-            bigrams.add(paddedAttrValue.substring(i, i + 2));
+    int intersectionCardinality(BloomFilter other) {
+        long[] a = words;
+        long[] b = other.words;
+        int intersect = 0;
+        for (int i = 0; i < a.length; i++) {
+            intersect += Long.bitCount(a[i] & b[i]);
+        }
+        return intersect;
+    }
+
+    private void checkSameSize(BloomFilter other) {
+        if (other.hashAreaSize != hashAreaSize) {
+            throw new IllegalArgumentException("Bloom filters must have same hash area size.");
         }
-        return bigrams;
     }
 
     /**
-     * Simulates k hash functions using specified hashing hashingMode based on SHA-1, MD5 and MD2. Then stores given bigram in
-     * bloom filter using the simulated hash functions.
-     * @param bigram bigram to be stored
-     * @param k number of hash functions to be simulated
+     * Sets the bit at the given position and keeps the cardinality up to date.
      */
-    private void storeBigram(String bigram, int k) throws NoSuchAlgorithmException {
-        bigram = tokenSalting + bigram + tokenSalting;
-        switch (mode) {
-            case DOUBLE_HASHING -> storeBigramDouble(bigram, k);
-            case ENHANCED_DOUBLE_HASHING -> storeBigramEnhancedDouble(bigram, k);
-            case TRIPLE_HASHING -> storeBigramTriple(bigram, k);
-            case RANDOM_HASHING -> storeBigramRandom(bigram, k);
+    void set(int position) {
+        long mask = 1L << position; // shift distance is taken mod 64
+        int w = position >>> 6;
+        if ((words[w] & mask) == 0) {
+            words[w] |= mask;
+            cardinality++;
         }
     }
 
-    private void storeBigramRandom(String bigram, int k) {
-        long seed = Long.parseLong(this.tokenSalting);
-        for (int i = 0; i < bigram.length(); i++) {
-            seed += bigram.charAt(i) * (Math.pow(257L,  i));
-        }
-        Random generator = new Random(seed);
-        int i = 0;
-        while (i < k) {
-            int hashValue = (int) (generator.nextDouble() * hashArea.length);
-            hashArea[hashValue] = true;
-            i++;
-        }
+    public boolean get(int position) {
+        if (position < 0 || position >= hashAreaSize) throw new IndexOutOfBoundsException(position);
+        return (words[position >>> 6] & (1L << position)) != 0;
     }
 
     /**
-     * h_i(x) = (h1(x) + i * h2(x) + i^2 * h3(x)) mod l
+     * @return the length l of the hash area in bits.
      */
-    private void storeBigramTriple(String bigram, int k) throws NoSuchAlgorithmException {
-        BigInteger h1 = getHash(bigram, this.h1);
-        BigInteger h2 = getHash(bigram, this.h2);
-        BigInteger h3 = getHash(bigram, "MD2");
-        int i = 0;
-        while (i < k) {
-            int o = Math.max(2*i - 1, 0); // i-th odd integer: 0, 1, 3, 5, 7, 9, ...
-            int hashValue = h1.mod(BigInteger.valueOf(hashArea.length)).intValue();
-            hashArea[hashValue] = true;
-            h1 = h1.add(h2)
-                    .add(h3.multiply(BigInteger.valueOf(o)));
-            i++;
-        }
+    public int getHashAreaSize() {
+        return hashAreaSize;
     }
 
-    private void storeBigramEnhancedDouble(String bigram, int k) throws NoSuchAlgorithmException {
-        BigInteger h1 = getHash(bigram, this.h1);
-        BigInteger h2 = getHash(bigram, this.h2);
-        int i = 0;
-        while (i < k) {
-            int hashValue = h1.mod(BigInteger.valueOf(hashArea.length)).intValue();
-            hashArea[hashValue] = true;
-            h1 = h1.add(h2);
-            h2 = h2.add(BigInteger.valueOf(i));
-            i++;
-        }
+    /**
+     * @return the number of bits set in the hash area.
+     */
+    public int getCardinality() {
+        return cardinality;
     }
 
     /**
-     * h_i(x) = (h1(x) + i * h2(x)) mod l
+     * @return the packed hash area. Bit i is set iff (words[i / 64] >>> (i % 64)) & 1 == 1. Must not be modified.
      */
-    private void storeBigramDouble(String bigram, int k) throws NoSuchAlgorithmException {
-        BigInteger h1 = getHash(bigram, this.h1);
-        BigInteger h2 = getHash(bigram, this.h2);
-        int i = 0;
-        while (i < k) {
-            int hashValue = h1.mod(BigInteger.valueOf(hashArea.length)).intValue();
-            hashArea[hashValue] = true;
-            h1 = h1.add(h2);
-            i++;
-        }
+    public long[] getWords() {
+        return words;
     }
 
     /**
-     * Function for generating a hash value from a given value using a specified hash-algorithm.
-     * @param value the string to be hashed.
-     * @param algorithm a string representing the hash algorithm to be used, eg. "MD5".
-     * @return resulting hash value as BigInteger.
-     * @throws NoSuchAlgorithmException If the specified hash-algorithm is unknown.
+     * Unpacks the hash area into one boolean per bit. Only meant for inspection, not for hot paths.
      */
-    private BigInteger getHash(String value, String algorithm) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(algorithm);
-        digest.reset();
-        digest.update(value.getBytes(StandardCharsets.UTF_8));
-        return new BigInteger(1, digest.digest());
+    public boolean[] getHashArea() {
+        boolean[] hashArea = new boolean[hashAreaSize];
+        for (int i = 0; i < hashAreaSize; i++) {
+            hashArea[i] = get(i);
+        }
+        return hashArea;
+    }
+
+    static int wordsFor(int hashAreaSize) {
+        return (hashAreaSize + 63) >>> 6;
     }
 }
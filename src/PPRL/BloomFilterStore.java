@@ -0,0 +1,346 @@
+package PPRL;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Binary file of Bloom filters, read through memory mapping.
+ * Replaces Java serialization of the person-bloom-filter map: the parameters are stored once in the header instead of
+ * per filter, and the filters are stored as packed words with a fixed stride, so that opening a store only maps the
+ * file and the filters are copied out of the mapped region in bulk, without deserializing each one. Matching copies
+ * all of them into a FilterSlab on the heap, see Encoder.getFilterSlab(), so the heap still grows with the number of
+ * records compared.
+ * <p>
+ * Layout (big-endian, version 2):
+ * <pre>
+ * header          magic, version, l, k, hashing mode, record count, salt hash, words per filter, id table size,
+ *                 offsets of the following sections
+ * id offsets      int[n + 1], start of each id in the id bytes
+ * id bytes        UTF-8 encoded ids (localID) of all records
+ * id table        int[idTableSize], open addressing hash table of record index + 1 (0 = empty)
+ * cardinalities   int[n], number of set bits per filter
+ * content hashes  long[n], hash of the plaintext each filter was created from, 8-byte aligned
+ * filters         long[n * wordsPerFilter]
+ * </pre>
+ */
+public class BloomFilterStore {
+
+    static final int MAGIC = 0x50504246; // "PPBF"
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 88;
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    final int l;
+    final int k;
+    final HashingMode mode;
+    final long saltHash;
+    final int size;
+    final int wordsPerFilter;
+    private final IntBuffer idOffsets;
+    private final ByteBuffer idBytes;
+    private final IntBuffer idTable;
+    private final IntBuffer cardinalities;
+    private final LongBuffer contentHashes;
+    private final LongBuffer[] filterSegments; // filters split into mappable segments of recordsPerSegment records
+    private final int recordsPerSegment;
+
+    private BloomFilterStore(FileChannel channel) throws IOException {
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC) throw new IOException("Not a Bloom filter store.");
+        if (header.getInt(4) != VERSION) throw new IOException("Unsupported Bloom filter store version " + header.getInt(4));
+        l = header.getInt(8);
+        k = header.getInt(12);
+        mode = HashingMode.values()[header.getInt(16)];
+        size = header.getInt(20);
+        saltHash = header.getLong(24);
+        wordsPerFilter = header.getInt(32);
+        int idTableSize = header.getInt(36);
+        long idOffsetsOffset = header.getLong(40);
+        long idBytesOffset = header.getLong(48);
+        long idTableOffset = header.getLong(56);
+        long cardinalitiesOffset = header.getLong(64);
+        long contentHashesOffset = header.getLong(72);
+        long filtersOffset = header.getLong(80);
+        idOffsets = map(channel, idOffsetsOffset, 4L * (size + 1)).asIntBuffer();
+        idBytes = map(channel, idBytesOffset, idTableOffset - idBytesOffset);
+        idTable = map(channel, idTableOffset, 4L * idTableSize).asIntBuffer();
+        cardinalities = map(channel, cardinalitiesOffset, 4L * size).asIntBuffer();
+        contentHashes = map(channel, contentHashesOffset, 8L * size).asLongBuffer();
+        long stride = 8L * wordsPerFilter;
+        recordsPerSegment = (int) Math.max(1, MAX_SEGMENT_BYTES / Math.max(stride, 1));
+        int segments = (size + recordsPerSegment - 1) / recordsPerSegment;
+        filterSegments = new LongBuffer[segments];
+        for (int s = 0; s < segments; s++) {
+            int records = Math.min(recordsPerSegment, size - s * recordsPerSegment);
+            filterSegments[s] = map(channel, filtersOffset + s * recordsPerSegment * stride, records * stride).asLongBuffer();
+        }
+    }
+
+    /**
+     * Opens the store at the given path by memory mapping it. Nothing but the header is read eagerly.
+     */
+    public static BloomFilterStore open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new BloomFilterStore(channel);
+        }
+    }
+
+    /**
+     * Writes the given filters, created with the given parameters, into a new store at the given path.
+     * The file is written next to the target and then moved in place, so stores that are still mapped stay valid.
+     * @param ids localIDs of the records
+     * @param filters Bloom filter of each record
+     * @param contentHashes hash of the plaintext attributes each filter was created from, see Encoder.contentHash()
+     */
+    public static void write(Path file, EncoderParams parameters, String[] ids, BloomFilter[] filters, long[] contentHashes) throws IOException {
+        int n = ids.length;
+        int wordsPerFilter = BloomFilter.wordsFor(parameters.l());
+        byte[][] encodedIds = new byte[n][];
+        int[] idOffsets = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            encodedIds[i] = ids[i].getBytes(StandardCharsets.UTF_8);
+            idOffsets[i + 1] = Math.addExact(idOffsets[i], encodedIds[i].length);
+        }
+        int[] idTable = new int[idTableSize(n)];
+        for (int i = 0; i < n; i++) {
+            int slot = hashId(encodedIds[i]) & (idTable.length - 1);
+            while (idTable[slot] != 0) slot = (slot + 1) & (idTable.length - 1);
+            idTable[slot] = i + 1;
+        }
+        long idOffsetsOffset = HEADER_SIZE;
+        long idBytesOffset = idOffsetsOffset + 4L * (n + 1);
+        long idTableOffset = align(idBytesOffset + idOffsets[n], 4);
+        long cardinalitiesOffset = idTableOffset + 4L * idTable.length;
+        long contentHashesOffset = align(cardinalitiesOffset + 4L * n, 8);
+        long filtersOffset = contentHashesOffset + 8L * n;
+
+        Path folder = file.toAbsolutePath().getParent();
+        Files.createDirectories(folder);
+        Path tmp = Files.createTempFile(folder, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(parameters.l());
+                out.writeInt(parameters.k());
+                out.writeInt(parameters.hashingMode().ordinal());
+                out.writeInt(n);
+                out.writeLong(saltHash(parameters.tokenSalting()));
+                out.writeInt(wordsPerFilter);
+                out.writeInt(idTable.length);
+                out.writeLong(idOffsetsOffset);
+                out.writeLong(idBytesOffset);
+                out.writeLong(idTableOffset);
+                out.writeLong(cardinalitiesOffset);
+                out.writeLong(contentHashesOffset);
+                out.writeLong(filtersOffset);
+                for (int offset : idOffsets) out.writeInt(offset);
+                for (byte[] id : encodedIds) out.write(id);
+                pad(out, idTableOffset - (idBytesOffset + idOffsets[n]));
+                for (int entry : idTable) out.writeInt(entry);
+                for (BloomFilter bf : filters) out.writeInt(bf.getCardinality());
+                pad(out, contentHashesOffset - (cardinalitiesOffset + 4L * n));
+                for (long contentHash : contentHashes) out.writeLong(contentHash);
+                for (BloomFilter bf : filters) {
+                    if (bf.getHashAreaSize() != parameters.l()) {
+                        throw new IllegalArgumentException("Bloom filters must have same hash area size.");
+                    }
+                    for (long word : bf.getWords()) out.writeLong(word);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * @return true if the filters in this store were created with the given parameters' l, k, hashing mode and token
+     * salting.
+     */
+    public boolean matches(EncoderParams parameters) {
+        return l == parameters.l() && k == parameters.k() && mode == parameters.hashingMode()
+                && saltHash == saltHash(parameters.tokenSalting());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the record index of the given id, or -1 if the store has no filter for it.
+     */
+    public int indexOf(String id) {
+        byte[] encoded = id.getBytes(StandardCharsets.UTF_8);
+        int mask = idTable.capacity() - 1;
+        int slot = hashId(encoded) & mask;
+        int entry;
+        while ((entry = idTable.get(slot)) != 0) {
+            if (idEquals(entry - 1, encoded)) return entry - 1;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public String getId(int index) {
+        int start = idOffsets.get(index);
+        byte[] encoded = new byte[idOffsets.get(index + 1) - start];
+        idBytes.get(start, encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    public int getCardinality(int index) {
+        return cardinalities.get(index);
+    }
+
+    public long getContentHash(int index) {
+        return contentHashes.get(index);
+    }
+
+    /**
+     * @return a heap copy of the filter at the given record index. Its hasher is not set, so it can be compared but
+     * not extended.
+     */
+    public BloomFilter get(int index) {
+        BloomFilter bf = new BloomFilter();
+        bf.hashAreaSize = l;
+        bf.k = k;
+        bf.words = new long[wordsPerFilter];
+        segment(index).get(offset(index), bf.words);
+        bf.cardinality = cardinalities.get(index);
+        return bf;
+    }
+
+    /**
+     * Copies the filter at the given record index out of the mapped region into the slot of a record of the slab.
+     */
+    void copyTo(int index, FilterSlab slab, int record) {
+        segment(index).get(offset(index), slab.words, slab.offset(record), wordsPerFilter);
+        slab.cardinalities[record] = cardinalities.get(index);
+    }
+
+    /**
+     * @return a read-only map view of localID to Bloom filter. Filters are copied out of the mapped region on access
+     * and are not held by the view.
+     */
+    public Map<String, BloomFilter> asMap() {
+        return new AbstractMap<>() {
+            @Override
+            public BloomFilter get(Object key) {
+                if (!(key instanceof String id)) return null;
+                int index = indexOf(id);
+                return index < 0 ? null : BloomFilterStore.this.get(index);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof String id && indexOf(id) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<String, BloomFilter>> entrySet() {
+                return new AbstractSet<>() {
+                    @Override
+                    public Iterator<Entry<String, BloomFilter>> iterator() {
+                        return new Iterator<>() {
+                            int next = 0;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < size;
+                            }
+
+                            @Override
+                            public Entry<String, BloomFilter> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                int index = next++;
+                                return new SimpleImmutableEntry<>(getId(index), BloomFilterStore.this.get(index));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+    private LongBuffer segment(int index) {
+        return filterSegments[index / recordsPerSegment];
+    }
+
+    private int offset(int index) {
+        return (index % recordsPerSegment) * wordsPerFilter;
+    }
+
+    private boolean idEquals(int index, byte[] encoded) {
+        int start = idOffsets.get(index);
+        if (idOffsets.get(index + 1) - start != encoded.length) return false;
+        for (int i = 0; i < encoded.length; i++) {
+            if (idBytes.get(start + i) != encoded[i]) return false;
+        }
+        return true;
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    /**
+     * Power of two with at most 50% load.
+     */
+    private static int idTableSize(int n) {
+        return Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1;
+    }
+
+    /**
+     * FNV-1a over the UTF-8 bytes of an id.
+     */
+    private static int hashId(byte[] encoded) {
+        int hash = 0x811c9dc5;
+        for (byte b : encoded) {
+            hash ^= b & 0xff;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    /**
+     * The token salting is a secret, so only the first 8 bytes of its SHA-256 digest are stored.
+     */
+    static long saltHash(String tokenSalting) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(tokenSalting.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long align(long offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    private static void pad(DataOutputStream out, long bytes) throws IOException {
+        for (long i = 0; i < bytes; i++) out.writeByte(0);
+    }
+}
@@ -0,0 +1,94 @@
+package PPRL;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The blocks of a BlockingIndex with the records of each of two sources sorted by the cardinality of their Bloom
+ * filters, for the length filter of the Matcher. The records of the other source whose filters may reach a
+ * Jaccard-Similarity of t with a given record form one contiguous run of each block, see window() and
+ * FilterSlab.mayReachJaccard(), so the records outside of it are skipped without being looked at.
+ * The records of block k stemming from source A are records[start(k)] to records[splitA[k] - 1], followed by those
+ * of source B up to records[splitB[k] - 1], each sorted by cardinality and then by ID. Records of other sources are
+ * left out.
+ */
+final class CardinalitySortedBlocks {
+
+    final int[] records;
+    final int[] cardinalities; // the cardinality of the filter of records[i]
+    private final BlockingIndex blockingIndex;
+    private final int[] splitA;
+    private final int[] splitB;
+    private final int sourceA;
+
+    CardinalitySortedBlocks(BlockingIndex blockingIndex, FilterSlab filters, ColumnarDataset dataSet, int sourceA,
+                            int sourceB, boolean parallel) {
+        this.blockingIndex = blockingIndex;
+        this.sourceA = sourceA;
+        int[] postings = blockingIndex.getPostings();
+        this.records = new int[postings.length];
+        this.cardinalities = new int[postings.length];
+        this.splitA = new int[blockingIndex.numberOfBlocks()];
+        this.splitB = new int[blockingIndex.numberOfBlocks()];
+        IntStream blocks = IntStream.range(0, blockingIndex.numberOfBlocks());
+        if (parallel) blocks = blocks.parallel();
+        blocks.forEach(block -> {
+            int start = blockingIndex.start(block), end = blockingIndex.end(block);
+            long[] keys = new long[end - start]; // cardinality in the high half, so that sorting orders by it first
+            int sizeA = 0, filledA = 0, sizeB = 0;
+            for (int i = start; i < end; i++) {
+                if (dataSet.getSourceCode(postings[i]) == sourceA) sizeA++;
+            }
+            for (int i = start; i < end; i++) {
+                int record = postings[i], source = dataSet.getSourceCode(record);
+                long key = ((long) filters.getCardinality(record) << 32) | record;
+                if (source == sourceA) keys[filledA++] = key;
+                else if (source == sourceB) keys[sizeA + sizeB++] = key;
+            }
+            Arrays.sort(keys, 0, sizeA);
+            Arrays.sort(keys, sizeA, sizeA + sizeB);
+            for (int i = 0; i < sizeA + sizeB; i++) {
+                records[start + i] = (int) keys[i];
+                cardinalities[start + i] = (int) (keys[i] >>> 32);
+            }
+            splitA[block] = start + sizeA;
+            splitB[block] = start + sizeA + sizeB;
+        });
+    }
+
+    /**
+     * @return the position of the first record of the given source, sourceA or sourceB, in the given block.
+     */
+    int start(int block, int source) {
+        return source == sourceA ? blockingIndex.start(block) : splitA[block];
+    }
+
+    /**
+     * @return the position after the last record of the given source, sourceA or sourceB, in the given block.
+     */
+    int end(int block, int source) {
+        return source == sourceA ? splitA[block] : splitB[block];
+    }
+
+    /**
+     * Finds the run of records[from] to records[to - 1], a sorted run of one source of a block, whose filters pass
+     * the length filter with a filter of the given cardinality and threshold t.
+     * @return the first position of the run in the high half and the position after its end in the low half.
+     */
+    long window(int from, int to, int cardinality, double t) {
+        int low = from, high = to;
+        while (low < high) { // first record not too small
+            int mid = (low + high) >>> 1;
+            if (cardinalities[mid] >= cardinality || FilterSlab.mayReachJaccard(cardinality, cardinalities[mid], t)) high = mid;
+            else low = mid + 1;
+        }
+        int first = low;
+        high = to;
+        while (low < high) { // first record too large
+            int mid = (low + high) >>> 1;
+            if (cardinalities[mid] > cardinality && !FilterSlab.mayReachJaccard(cardinality, cardinalities[mid], t)) high = mid;
+            else low = mid + 1;
+        }
+        return ((long) first << 32) | low;
+    }
+}
@@ -0,0 +1,226 @@
+package PPRL;
+
+import org.apache.commons.codec.language.Soundex;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Column-oriented, dictionary encoded dataset. Records are addressed by dense int record IDs 0..size-1 in input order.
+ * Each attribute is stored as one int column of dictionary codes, and each distinct value is stored once in the
+ * attribute's dictionary. Attribute indices follow the schema in Person.attributeNames and are meant to be resolved
+ * once via attributeIndex(), not per record.
+ * Records are partitioned by their sourceID, so that the records of a source can be iterated without scanning.
+ * Attributes can be dropped when building, e.g. to keep only the IDs once the Bloom filters are created; getValue()
+ * returns null for dropped attributes.
+ */
+public class ColumnarDataset {
+
+    final String[] attributeNames;
+    final int size;
+    final int[][] codes; // codes[attribute][record], null if the attribute was dropped
+    final String[][] dictionaries; // dictionaries[attribute][code]
+    private final int sourceAttribute;
+    private final int[][] sourcePartitions; // record IDs of each source, indexed by the dictionary code of the sourceID
+    private final String[][] soundexByCode; // soundex of each dictionary value, computed on first use
+
+    private ColumnarDataset(String[] attributeNames, int size, int[][] codes, String[][] dictionaries) {
+        this.attributeNames = attributeNames;
+        this.size = size;
+        this.codes = codes;
+        this.dictionaries = dictionaries;
+        this.sourceAttribute = attributeIndex("sourceID");
+        this.soundexByCode = new String[attributeNames.length][];
+        this.sourcePartitions = new int[dictionaries[sourceAttribute].length][];
+        int[] partitionSizes = new int[sourcePartitions.length];
+        for (int record = 0; record < size; record++) {
+            partitionSizes[codes[sourceAttribute][record]]++;
+        }
+        for (int source = 0; source < sourcePartitions.length; source++) {
+            sourcePartitions[source] = new int[partitionSizes[source]];
+            partitionSizes[source] = 0;
+        }
+        for (int record = 0; record < size; record++) {
+            int source = codes[sourceAttribute][record];
+            sourcePartitions[source][partitionSizes[source]++] = record;
+        }
+    }
+
+    /**
+     * Creates a dataset of the given persons, keeping all attributes. Record IDs are the indices in the array.
+     */
+    public static ColumnarDataset of(Person... persons) {
+        Builder builder = new Builder();
+        for (Person person : persons) {
+            builder.add(person.attributeValues);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads all records of the given UTF-8 encoded CSV file, keeping all attributes. See ParallelCsvReader.
+     */
+    public static ColumnarDataset fromFile(String filePath) {
+        Builder builder = new Builder();
+        new ParallelCsvReader(Paths.get(filePath), StandardCharsets.UTF_8)
+                .readInBatches(records -> records.forEach(builder::add));
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the attribute with the given name in the schema.
+     * @throws IllegalArgumentException if the specified attribute name does not exist.
+     */
+    public int attributeIndex(String attributeName) {
+        for (int index = 0; index < attributeNames.length; index++) {
+            if (attributeNames[index].equals(attributeName)) return index;
+        }
+        throw new IllegalArgumentException("No such attribute '" + attributeName + "'");
+    }
+
+    public String getValue(int record, int attribute) {
+        int[] column = codes[attribute];
+        return column == null ? null : dictionaries[attribute][column[record]];
+    }
+
+    /**
+     * @return the dictionary code of the record's value. Records with equal values have equal codes.
+     */
+    public int getCode(int record, int attribute) {
+        return codes[attribute][record];
+    }
+
+    /**
+     * Returns the soundex of the record's value of the given attribute. The soundex is computed once per distinct value.
+     */
+    public String getSoundex(int record, int attribute) {
+        String[] soundex = soundexByCode[attribute];
+        if (soundex == null) soundex = computeSoundex(attribute);
+        return soundex[codes[attribute][record]];
+    }
+
+    private synchronized String[] computeSoundex(int attribute) {
+        if (soundexByCode[attribute] != null) return soundexByCode[attribute];
+        Soundex encoder = new Soundex();
+        String[] dictionary = dictionaries[attribute];
+        String[] soundex = new String[dictionary.length];
+        for (int code = 0; code < dictionary.length; code++) {
+            soundex[code] = encoder.soundex(dictionary[code]);
+        }
+        soundexByCode[attribute] = soundex;
+        return soundex;
+    }
+
+    /**
+     * @return the dictionary code of the given sourceID, or -1 if no record belongs to that source.
+     */
+    public int sourceCode(String sourceName) {
+        String[] sources = dictionaries[sourceAttribute];
+        for (int code = 0; code < sources.length; code++) {
+            if (sources[code].equals(sourceName)) return code;
+        }
+        return -1;
+    }
+
+    public int getSourceCode(int record) {
+        return codes[sourceAttribute][record];
+    }
+
+    /**
+     * @return the IDs of all records of the given source in ascending order. Must not be modified.
+     */
+    public int[] getSourcePartition(String sourceName) {
+        int code = sourceCode(sourceName);
+        return code < 0 ? new int[0] : sourcePartitions[code];
+    }
+
+    /**
+     * Materializes the record as a Person. Dropped attributes are null.
+     */
+    public Person getPerson(int record) {
+        String[] values = new String[attributeNames.length];
+        for (int attribute = 0; attribute < attributeNames.length; attribute++) {
+            values[attribute] = getValue(record, attribute);
+        }
+        return new Person(values);
+    }
+
+    /**
+     * Builds a ColumnarDataset record by record. The schema is the one in Person.attributeNames at construction time.
+     */
+    public static class Builder {
+
+        private final String[] attributeNames;
+        private final boolean[] retained;
+        private final List<Map<String, Integer>> codesByValue;
+        private final List<List<String>> values;
+        private int[][] codes;
+        private int size;
+
+        /**
+         * Builder keeping all attributes.
+         */
+        public Builder() {
+            this(attributeName -> true);
+        }
+
+        /**
+         * Builder keeping only the attributes accepted by the given filter. The sourceID is always kept.
+         */
+        public Builder(Predicate<String> retainAttribute) {
+            this.attributeNames = Person.attributeNames.clone();
+            this.retained = new boolean[attributeNames.length];
+            this.codesByValue = new ArrayList<>();
+            this.values = new ArrayList<>();
+            this.codes = new int[attributeNames.length][];
+            for (int attribute = 0; attribute < attributeNames.length; attribute++) {
+                retained[attribute] = attributeNames[attribute].equals("sourceID") || retainAttribute.test(attributeNames[attribute]);
+                codesByValue.add(retained[attribute] ? new HashMap<>() : null);
+                values.add(retained[attribute] ? new ArrayList<>() : null);
+                codes[attribute] = retained[attribute] ? new int[1024] : null;
+            }
+        }
+
+        public void add(String[] record) {
+            if (record.length != attributeNames.length) {
+                throw new IllegalArgumentException("Attribute array must have " + attributeNames.length + " elements.");
+            }
+            if (size == codes[0].length) {
+                for (int attribute = 0; attribute < attributeNames.length; attribute++) {
+                    if (retained[attribute]) codes[attribute] = Arrays.copyOf(codes[attribute], 2 * size);
+                }
+            }
+            for (int attribute = 0; attribute < attributeNames.length; attribute++) {
+                if (!retained[attribute]) continue;
+                List<String> dictionary = values.get(attribute);
+                Integer code = codesByValue.get(attribute).computeIfAbsent(record[attribute], value -> {
+                    dictionary.add(value);
+                    return dictionary.size() - 1;
+                });
+                codes[attribute][size] = code;
+            }
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public ColumnarDataset build() {
+            int[][] columns = new int[attributeNames.length][];
+            String[][] dictionaries = new String[attributeNames.length][];
+            for (int attribute = 0; attribute < attributeNames.length; attribute++) {
+                if (!retained[attribute]) continue;
+                columns[attribute] = Arrays.copyOf(codes[attribute], size);
+                dictionaries[attribute] = values.get(attribute).toArray(String[]::new);
+            }
+            return new ColumnarDataset(attributeNames, size, columns, dictionaries);
+        }
+    }
+}
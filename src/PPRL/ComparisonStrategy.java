@@ -0,0 +1,20 @@
+package PPRL;
+
+/**
+ * How the Matcher compares a record with the records of the other source in its blocks.
+ * ROW_WISE intersects its filter with the filter of each record, see FilterSlab.filterJaccardSimilarities().
+ * BIT_SLICED counts the intersections with all records of a block at once from one bitmap per filter position, see
+ * BitSlicedBlocks, which reads only the positions set in its filter and thus wins for sparse filters and large blocks.
+ */
+public enum ComparisonStrategy {
+    ROW_WISE,
+    BIT_SLICED;
+
+    public static ComparisonStrategy parseFromString(String s) {
+        return switch (s.toUpperCase()) {
+            case "ROW", "ROW_WISE" -> ComparisonStrategy.ROW_WISE;
+            case "SLICED", "BIT_SLICED" -> ComparisonStrategy.BIT_SLICED;
+            default -> throw new IllegalArgumentException("Unexpected Value for Comparison Strategy '" + s + "'");
+        };
+    }
+}
@@ -1,100 +1,362 @@
 package PPRL;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 public class Encoder {
 
+    public static final int DEFAULT_BIGRAM_CACHE_SIZE = 1 << 16;
+
     String storageFolder;
-    Person[] dataSet;
+    ColumnarDataset dataSet;
     EncoderParams parameters;
+    BigramHasher hasher;
+    BigramPositionCache bigramCache;
     ProgressHandler progressHandler;
+    int localIDAttribute;
+    int[] encodedAttributes; // indices of the attributes stored in the filters (weight != 0), in schema order
+    int[] attributeK; // number of hash functions of each encoded attribute
     Map<String, BloomFilter> personBloomFilterMap;
+    BloomFilterStore store; // set if the filters were loaded from the storage file
+    String[] localIDs; // localID, filter and content hash of each record by record ID, set if the filters were created
+    BloomFilter[] bloomFilters;
+    long[] contentHashes;
+    FilterSlab filterSlab; // the filters by record ID, see getFilterSlab()
+    long reusedCount; // number of filters reused from the storage file by the last encoding
+    int encodedCount; // state of encoding in batches, see beginBatches()
+    BloomFilterStore previous;
+    boolean alwaysRecreate;
 
     public Encoder(Person[] dataSet, EncoderParams parameters, String storageFolder) {
+        this(ColumnarDataset.of(dataSet), parameters, storageFolder);
+    }
+
+    public Encoder(ColumnarDataset dataSet, EncoderParams parameters, String storageFolder) {
+        this(dataSet, parameters, storageFolder, DEFAULT_BIGRAM_CACHE_SIZE);
+    }
+
+    /**
+     * @param bigramCacheSize maximum number of (bigram, k) entries whose bit positions are memoized. 0 disables the
+     *                        cache. The cache is scoped to this encoder and its parameters.
+     */
+    public Encoder(ColumnarDataset dataSet, EncoderParams parameters, String storageFolder, int bigramCacheSize) {
         this.storageFolder = storageFolder;
         this.dataSet = dataSet;
         this.parameters = parameters;
-        this.progressHandler = new ProgressHandler(dataSet.length, 1);
+        this.hasher = new BigramHasher(parameters);
+        this.bigramCache = new BigramPositionCache(hasher, bigramCacheSize);
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
+        resolveAttributes();
+    }
+
+    /**
+     * Constructor for an Encoder that is fed its records in batches, see beginBatches().
+     */
+    public Encoder(EncoderParams parameters, String storageFolder) {
+        this(new ColumnarDataset.Builder().build(), parameters, storageFolder);
     }
 
+    /**
+     * Resolves the encoded attributes and their number of hash functions once, see BloomFilter.storePersonData().
+     */
+    private void resolveAttributes() {
+        String[] attributeNames = Person.attributeNames;
+        this.localIDAttribute = dataSet.attributeIndex("localID");
+        this.encodedAttributes = IntStream.range(0, attributeNames.length)
+                .filter(a -> Person.attributeWeights.get(attributeNames[a]) != 0.0)
+                .toArray();
+        this.attributeK = Arrays.stream(encodedAttributes)
+                .map(a -> parameters.weightedAttributes()
+                        ? (int) (parameters.k() * Person.attributeWeights.get(attributeNames[a]))
+                        : parameters.k())
+                .toArray();
+    }
+
+    public BigramPositionCache getBigramCache() {
+        return bigramCache;
+    }
+
+    /**
+     * @return map with the localIDs as keys and the Bloom filters as values, created on first call.
+     */
     public Map<String, BloomFilter> getPersonBloomFilterMap() {
+        if (personBloomFilterMap == null && getBloomFilters() != null) personBloomFilterMap = toMap(bloomFilters.length);
         return personBloomFilterMap;
     }
 
     /**
-     * Check if personBloomFilterMap is stored in the specified filepath. If yes, load it,
-     * otherwise, create a new one and write it.
+     * @return the Bloom filter of each record, indexed by record ID. Filters served from the storage file or only held
+     * in the slab are copied to the heap on first call.
+     */
+    public BloomFilter[] getBloomFilters() {
+        if (bloomFilters == null && (filterSlab != null || store != null)) {
+            FilterSlab slab = getFilterSlab();
+            bloomFilters = new BloomFilter[slab.size()];
+            Arrays.setAll(bloomFilters, slab::get);
+        }
+        return bloomFilters;
+    }
+
+    /**
+     * Returns the filters of all records in one slab indexed by record ID, created on first call. The slab is on the heap
+     * and takes l / 8 bytes per record. Filters served from the storage file are copied straight out of the mapped
+     * region, resolving each localID once. Otherwise, the BloomFilter objects are copied into the slab and released
+     * afterwards, so they are not held twice.
+     */
+    public FilterSlab getFilterSlab() {
+        if (filterSlab != null) return filterSlab;
+        if (bloomFilters != null) {
+            filterSlab = FilterSlab.of(bloomFilters);
+            if (personBloomFilterMap == null) bloomFilters = null;
+        } else if (store != null) {
+            filterSlab = new FilterSlab(parameters.l(), dataSet.size());
+            IntStream.range(0, dataSet.size()).parallel().forEach(record ->
+                    store.copyTo(store.indexOf(dataSet.getValue(record, localIDAttribute)), filterSlab, record));
+        }
+        return filterSlab;
+    }
+
+    /**
+     * Check if personBloomFilterMap is stored in the specified storage folder. If yes, load it, otherwise, create a new
+     * one and write it.
+     * The storage file is named by the fingerprint of the encoder parameters and attribute weights, so changing any of
+     * them never reuses filters of other settings. Each stored filter carries the hash of the plaintext it was created
+     * from: if the dataset changed since the file was written, only new or changed records are encoded, the other
+     * filters are reused, and the file is rewritten.
      * If alwaysRecreate is set to true, this method will not check if a storage file exists but always create a new
      * personBloomFilterMap.
-     * After calling this method the field personBloomFilterMap will be set.
+     * After calling this method the filters are available through getBloomFilters() and getPersonBloomFilterMap().
      */
     public void createPbmIfNotExist(boolean alwaysRecreate) {
         if (alwaysRecreate) {
-            this.personBloomFilterMap = createPersonBloomFilterMap();
+            createBloomFilters(null);
             return;
         }
-        if (!pbmExists()) {
-            this.personBloomFilterMap = createPersonBloomFilterMap();
-            System.out.println("Saving Bloom Filters...");
-            savePbm();
-            System.out.println("Done.");
-        } else {
+        BloomFilterStore previous = openStore();
+        if (previous != null && isUpToDate(previous)) {
             System.out.println("Found Existing Bloom Filters. Loading...");
-            loadPbm();
+            this.store = previous;
+            this.personBloomFilterMap = store.asMap();
             System.out.println("Done.");
+            return;
         }
+        createBloomFilters(previous);
+        System.out.println("Saving Bloom Filters...");
+        savePbm();
+        System.out.println("Done.");
     }
 
     /**
-     * Creates a BloomFilter for each Person object in given dataset and returns a map with Person as keys and
-     * BloomFilter as values.
+     * Creates a BloomFilter for each record of the dataset, stored by record ID. Filters of the given previous store are
+     * reused for records whose content did not change.
+     * @param previous store of an earlier run with the same fingerprint, or null.
      */
-    private Map<String, BloomFilter> createPersonBloomFilterMap() {
+    private void createBloomFilters(BloomFilterStore previous) {
+        System.out.println("Creating Bloom Filters...");
+        this.localIDs = new String[dataSet.size()];
+        this.bloomFilters = new BloomFilter[dataSet.size()];
+        this.contentHashes = new long[dataSet.size()];
         progressHandler.reset();
+        try {
+            this.reusedCount = encodeRecords(dataSet, previous, 0, progressHandler);
+            progressHandler.finish();
+        } finally {
+            progressHandler.close();
+        }
+        if (previous != null) System.out.printf("Reused %d of %d Bloom Filters.%n", reusedCount, dataSet.size());
+        System.out.println(bigramCache);
+    }
+
+    /**
+     * Encodes the given records in parallel into localIDs, bloomFilters and contentHashes, starting at the given offset.
+     * @param progressHandler updated per record, may be null.
+     * @return the number of filters reused from the previous store.
+     */
+    private long encodeRecords(ColumnarDataset records, BloomFilterStore previous, int offset, ProgressHandler progressHandler) {
+        LongAdder reused = new LongAdder();
+        IntStream.range(0, records.size()).parallel().forEach(r -> {
+            int i = offset + r;
+            localIDs[i] = records.getValue(r, localIDAttribute);
+            contentHashes[i] = contentHash(records, r);
+            int index = previous == null ? -1 : previous.indexOf(localIDs[i]);
+            if (index >= 0 && previous.getContentHash(index) == contentHashes[i]) {
+                bloomFilters[i] = previous.get(index);
+                reused.increment();
+            } else {
+                bloomFilters[i] = encodeRecord(records, r);
+            }
+            if (progressHandler != null) progressHandler.updateProgress();
+        });
+        return reused.sum();
+    }
+
+    /**
+     * Prepares encoding a dataset that is read in batches, see encodeBatch() and finishBatches(). Like
+     * createPbmIfNotExist(), the filters of the storage file are reused for unchanged records unless alwaysRecreate
+     * is set, and the storage file is updated when finished.
+     */
+    public void beginBatches(boolean alwaysRecreate) {
+        this.alwaysRecreate = alwaysRecreate;
+        this.previous = alwaysRecreate ? null : openStore();
+        this.localIDs = new String[1024];
+        this.bloomFilters = new BloomFilter[1024];
+        this.contentHashes = new long[1024];
+        this.encodedCount = 0;
+        this.reusedCount = 0;
         System.out.println("Creating Bloom Filters...");
+    }
+
+    /**
+     * Encodes the next batch of records. The batch is not referenced afterwards, so the plaintext can be dropped.
+     * @return the Bloom filter of each record in the batch.
+     */
+    public BloomFilter[] encodeBatch(ColumnarDataset batch) {
+        int required = encodedCount + batch.size();
+        if (required > localIDs.length) {
+            int capacity = Math.max(required, 2 * localIDs.length);
+            localIDs = Arrays.copyOf(localIDs, capacity);
+            bloomFilters = Arrays.copyOf(bloomFilters, capacity);
+            contentHashes = Arrays.copyOf(contentHashes, capacity);
+        }
+        // the total size is unknown while streaming, so there is no progress in percent
+        reusedCount += encodeRecords(batch, previous, encodedCount, null);
+        encodedCount = required;
+        return Arrays.copyOfRange(bloomFilters, required - batch.size(), required);
+    }
+
+    /**
+     * Finishes encoding a dataset read in batches and updates the storage file. The record IDs of the filters continue
+     * across batches in the order they were encoded.
+     */
+    public void finishBatches() {
+        System.out.println("Done.");
+        localIDs = Arrays.copyOf(localIDs, encodedCount);
+        bloomFilters = Arrays.copyOf(bloomFilters, encodedCount);
+        contentHashes = Arrays.copyOf(contentHashes, encodedCount);
+        if (previous != null) System.out.printf("Reused %d of %d Bloom Filters.%n", reusedCount, encodedCount);
+        System.out.println(bigramCache);
+        if (previous != null && reusedCount == encodedCount && previous.size() == encodedCount) {
+            // nothing changed, the storage file is up to date
+            this.store = previous;
+            this.personBloomFilterMap = store.asMap();
+        } else if (!alwaysRecreate) {
+            System.out.println("Saving Bloom Filters...");
+            savePbm();
+            System.out.println("Done.");
+        }
+        this.previous = null;
+    }
+
+    private Map<String, BloomFilter> toMap(int size) {
         Map<String, BloomFilter> personBloomFilterMap = new ConcurrentHashMap<>();
-        Arrays.stream(dataSet).parallel().forEach(person -> {
-            BloomFilter bf = new BloomFilter(parameters.l(), parameters.k(), parameters.hashingMode(), parameters.tokenSalting(), parameters.h1(), parameters.h2());
-            bf.storePersonData(person, parameters.weightedAttributes());
-            personBloomFilterMap.put(person.getAttributeValue("localID"), bf);
-            progressHandler.updateProgress();
-        });
-        progressHandler.finish();
+        for (int i = 0; i < size; i++) {
+            personBloomFilterMap.put(localIDs[i], bloomFilters[i]);
+        }
         return personBloomFilterMap;
     }
 
-    private String getStorageFileName() {
-        return Paths.get(storageFolder, parameters.tokenSalting()).toString();
+    private BloomFilter newBloomFilter() {
+        return bigramCache.getMaxSize() > 0 ? new BloomFilter(parameters.k(), bigramCache) : new BloomFilter(parameters.k(), hasher);
     }
 
-    private void loadPbm() {
-        File file = new File(getStorageFileName());
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
-             FileInputStream fis = new FileInputStream(raf.getFD());
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            this.personBloomFilterMap = (ConcurrentHashMap<String, BloomFilter>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            throw new RuntimeException(e);
+    /**
+     * Creates the Bloom filter of the given record, equal to BloomFilter.storePersonData() of the record as Person.
+     */
+    private BloomFilter encodeRecord(ColumnarDataset records, int record) {
+        BloomFilter bloomFilter = newBloomFilter();
+        for (int i = 0; i < encodedAttributes.length; i++) {
+            if (attributeK[i] == 0) continue;
+            bloomFilter.store(records.getValue(record, encodedAttributes[i]), attributeK[i]);
         }
+        return bloomFilter;
+    }
+
+    /**
+     * @return true if the store holds exactly the records of the dataset, all with unchanged content.
+     */
+    private boolean isUpToDate(BloomFilterStore store) {
+        if (store.size() != dataSet.size()) return false;
+        return IntStream.range(0, dataSet.size()).parallel().allMatch(record -> {
+            int index = store.indexOf(dataSet.getValue(record, localIDAttribute));
+            return index >= 0 && store.getContentHash(index) == contentHash(dataSet, record);
+        });
+    }
+
+    /**
+     * 64-bit FNV-1a hash over the values of all attributes that are stored in the Bloom filter (weight != 0).
+     */
+    long contentHash(ColumnarDataset records, int record) {
+        long hash = 0xcbf29ce484222325L;
+        for (int a : encodedAttributes) {
+            String value = records.getValue(record, a);
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0x1f) * 0x100000001b3L; // unit separator, so that ("ab", "c") != ("a", "bc")
+        }
+        return hash;
+    }
+
+    /**
+     * Fingerprint of everything that determines the Bloom filter of a record apart from the record itself: the encoder
+     * parameters, the attribute names and weights and the storage format version. Hashed, as it includes the salting.
+     */
+    String getFingerprint() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(BloomFilterStore.VERSION).append('|')
+                .append(parameters.hashingMode()).append('|')
+                .append(parameters.h1()).append('|')
+                .append(parameters.h2()).append('|')
+                .append(parameters.weightedAttributes()).append('|')
+                .append(parameters.tokenSalting()).append('|')
+                .append(parameters.l()).append('|')
+                .append(parameters.k());
+        Person.attributeWeights.forEach((name, weight) -> sb.append('|').append(name).append('=').append(weight));
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String getStorageFileName() {
+        return Paths.get(storageFolder, getFingerprint()).toString();
     }
 
     private void savePbm() {
-        File file = new File(getStorageFileName());
-        try (FileOutputStream fos = new FileOutputStream(file);
-             ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(this.personBloomFilterMap);
-            oos.flush();
+        try {
+            BloomFilterStore.write(Paths.get(getStorageFileName()), parameters, localIDs, bloomFilters, contentHashes);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private boolean pbmExists() {
-        return (new File(getStorageFileName()).isFile());
+    /**
+     * Opens the storage file if it exists and holds filters created with the current parameters.
+     * Files of an older format are treated as not existing and will be overwritten.
+     * @return the store, or null.
+     */
+    private BloomFilterStore openStore() {
+        Path path = Paths.get(getStorageFileName());
+        if (!Files.isRegularFile(path)) return null;
+        try {
+            BloomFilterStore store = BloomFilterStore.open(path);
+            return store.matches(parameters) ? store : null;
+        } catch (IOException e) {
+            return null;
+        }
     }
 
 }
@@ -0,0 +1,266 @@
+package PPRL;
+
+/**
+ * The Bloom filters of a whole dataset in one contiguous long array, addressed by record ID. The words of record r are
+ * words[r * wordsPerFilter] to words[(r + 1) * wordsPerFilter - 1], packed like BloomFilter.getWords(), and its
+ * cardinality is cardinalities[r]. So comparing two records reads two adjacent runs of memory and involves neither
+ * map lookups nor BloomFilter objects.
+ * The slab is filled once and then only read, so it can be shared between threads.
+ */
+public class FilterSlab {
+
+    static final int EXIT_CHECK_WORDS = 8;
+
+    final int hashAreaSize;
+    final int wordsPerFilter;
+    final int size;
+    final long[] words;
+    final int[] cardinalities;
+
+    /**
+     * Creates an empty slab for the given number of records.
+     * @throws IllegalArgumentException if the filters of all records do not fit into one array.
+     */
+    public FilterSlab(int hashAreaSize, int size) {
+        this.hashAreaSize = hashAreaSize;
+        this.wordsPerFilter = BloomFilter.wordsFor(hashAreaSize);
+        this.size = size;
+        long length = (long) wordsPerFilter * size;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many records for one filter slab: " + size);
+        }
+        this.words = new long[(int) length];
+        this.cardinalities = new int[size];
+    }
+
+    /**
+     * Copies the given filters into a new slab. The record ID of a filter is its index in the array.
+     */
+    public static FilterSlab of(BloomFilter[] bloomFilters) {
+        int hashAreaSize = bloomFilters.length == 0 ? 0 : bloomFilters[0].getHashAreaSize();
+        FilterSlab slab = new FilterSlab(hashAreaSize, bloomFilters.length);
+        for (int record = 0; record < bloomFilters.length; record++) {
+            slab.set(record, bloomFilters[record]);
+        }
+        return slab;
+    }
+
+    /**
+     * Copies the given filter into the slot of the given record.
+     */
+    public void set(int record, BloomFilter bloomFilter) {
+        if (bloomFilter.getHashAreaSize() != hashAreaSize) {
+            throw new IllegalArgumentException("Bloom filters must have same hash area size.");
+        }
+        System.arraycopy(bloomFilter.getWords(), 0, words, offset(record), wordsPerFilter);
+        cardinalities[record] = bloomFilter.getCardinality();
+    }
+
+    /**
+     * @return a heap copy of the filter of the given record. Its hasher is not set, so it can be compared but not
+     * extended.
+     */
+    public BloomFilter get(int record) {
+        BloomFilter bf = new BloomFilter();
+        bf.hashAreaSize = hashAreaSize;
+        bf.words = new long[wordsPerFilter];
+        System.arraycopy(words, offset(record), bf.words, 0, wordsPerFilter);
+        bf.cardinality = cardinalities[record];
+        return bf;
+    }
+
+    /**
+     * Computes the Jaccard-Similarity (|intersection| / |union|) of the filters of the two given records.
+     */
+    public double computeJaccardSimilarity(int a, int b) {
+        int intersect = intersectionCardinality(a, b);
+        return 1.0 * intersect / (cardinalities[a] + cardinalities[b] - intersect);
+    }
+
+    /**
+     * Computes the Dice-Similarity (2 * |intersection| / (|X|+|Y|)) of the filters of the two given records.
+     */
+    public double computeDiceSimilarity(int a, int b) {
+        int intersect = intersectionCardinality(a, b);
+        return 2.0 * intersect / (cardinalities[a] + cardinalities[b]);
+    }
+
+    /**
+     * Computes the Jaccard-Similarities of the filter of the query record with the filters of candidates[from] to
+     * candidates[to - 1], and writes them into similarities[0] to similarities[to - from - 1].
+     */
+    public void computeJaccardSimilarities(int query, int[] candidates, int from, int to, double[] similarities) {
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            long intersects = intersectionCardinalities(query, candidates[i], candidates[i + 1]);
+            similarities[i - from] = jaccard(query, candidates[i], (int) (intersects >>> 32));
+            similarities[i + 1 - from] = jaccard(query, candidates[i + 1], (int) intersects);
+        }
+        if (i < to) similarities[i - from] = jaccard(query, candidates[i], intersectionCardinality(query, candidates[i]));
+    }
+
+    /**
+     * Compares the filter of the query record with the filters of candidates[from] to candidates[to - 1] like
+     * computeJaccardSimilarities(), but keeps only those with a Jaccard-Similarity of at least t: their positions in
+     * candidates are written into matches and their similarities into similarities, in the order of the candidates.
+     * Both buffers must have room for to - from entries. The comparison of a pair stops as soon as the remaining words
+     * cannot lift it to t, see boundedIntersectionCardinality(). Filters of up to EXIT_CHECK_WORDS words are compared in
+     * full, as they offer no point to stop at.
+     * @return the number of candidates with a similarity of at least t.
+     */
+    public int filterJaccardSimilarities(int query, int[] candidates, int from, int to, double t, int[] matches,
+                                         double[] similarities) {
+        int cardinality = cardinalities[query];
+        double ratio = t / (1 + t);
+        int found = 0;
+        int i = from;
+        for (; i + 1 < to; i += 2) {
+            int b = candidates[i], c = candidates[i + 1];
+            long intersects = wordsPerFilter <= EXIT_CHECK_WORDS ? intersectionCardinalities(query, b, c)
+                    : boundedIntersectionCardinalities(query, b, c,
+                    cardinality - minIntersection(cardinality, cardinalities[b], ratio),
+                    cardinality - minIntersection(cardinality, cardinalities[c], ratio));
+            double first = jaccard(query, b, (int) (intersects >>> 32));
+            double second = jaccard(query, c, (int) intersects);
+            if (first >= t) {
+                matches[found] = i;
+                similarities[found++] = first;
+            }
+            if (second >= t) {
+                matches[found] = i + 1;
+                similarities[found++] = second;
+            }
+        }
+        if (i < to) {
+            int b = candidates[i];
+            double last = jaccard(query, b, boundedIntersectionCardinality(query, b,
+                    cardinality - minIntersection(cardinality, cardinalities[b], ratio)));
+            if (last >= t) {
+                matches[found] = i;
+                similarities[found++] = last;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Computes the Jaccard-Similarity of the filters of the two given records if it is at least t. Otherwise returns a
+     * value below t, skipping the comparison if the cardinalities already rule t out, see mayReachJaccard(), or stopping
+     * it early.
+     */
+    public double computeJaccardSimilarity(int a, int b, double t) {
+        int cardinalityA = cardinalities[a], cardinalityB = cardinalities[b];
+        if (!mayReachJaccard(cardinalityA, cardinalityB, t)) return Double.NEGATIVE_INFINITY;
+        return jaccard(a, b, boundedIntersectionCardinality(a, b,
+                cardinalityA - minIntersection(cardinalityA, cardinalityB, t / (1 + t))));
+    }
+
+    /**
+     * Length filter: as the intersection of two filters is at most as large as the smaller and their union at least as
+     * large as the larger one, their Jaccard-Similarity can only reach t if min / max of their cardinalities does, i.e.
+     * if t * |X| <= |Y| <= |X| / t. The bound is evaluated in the same floating point arithmetic as the similarity, so
+     * it never rejects a pair whose computed similarity would reach t.
+     */
+    public static boolean mayReachJaccard(int cardinalityX, int cardinalityY, double t) {
+        return 1.0 * Math.min(cardinalityX, cardinalityY) / Math.max(cardinalityX, cardinalityY) >= t;
+    }
+
+    /**
+     * @return a lower bound of the intersection that filters with the given cardinalities need for a
+     * Jaccard-Similarity of t: i / (|X| + |Y| - i) >= t solves to i >= t / (1 + t) * (|X| + |Y|), which is passed as
+     * ratio. One is subtracted to be safe from rounding.
+     */
+    static int minIntersection(int cardinalityX, int cardinalityY, double ratio) {
+        return (int) Math.max(0, ratio * (cardinalityX + cardinalityY) - 1);
+    }
+
+    private double jaccard(int a, int b, int intersect) {
+        return 1.0 * intersect / (cardinalities[a] + cardinalities[b] - intersect);
+    }
+
+    /**
+     * Intersects the query filter with two filters in the same pass, so that each query word is loaded once and the two
+     * popcount chains are independent. Returns the first intersection in the high and the second in the low half.
+     */
+    private long intersectionCardinalities(int query, int b, int c) {
+        long[] words = this.words;
+        int offsetQuery = offset(query);
+        int offsetB = offset(b);
+        int offsetC = offset(c);
+        int intersectB = 0, intersectC = 0;
+        for (int i = 0; i < wordsPerFilter; i++) {
+            long word = words[offsetQuery + i];
+            intersectB += Long.bitCount(word & words[offsetB + i]);
+            intersectC += Long.bitCount(word & words[offsetC + i]);
+        }
+        return ((long) intersectB << 32) | intersectC;
+    }
+
+    /**
+     * Computes the intersection of the filter of record a with the filter of record b as |a| minus the bits of a that b
+     * does not have. That count only grows, so the comparison stops once it exceeds maxDifference, when the
+     * intersection can no longer reach |a| - maxDifference. It then returns an upper bound of the intersection below
+     * that value instead of the intersection. The bound is checked every EXIT_CHECK_WORDS words, so that the loop over
+     * them stays free of branches.
+     */
+    int boundedIntersectionCardinality(int a, int b, int maxDifference) {
+        long[] words = this.words;
+        int offsetA = offset(a);
+        int offsetB = offset(b);
+        int difference = 0;
+        for (int i = 0; i < wordsPerFilter && difference <= maxDifference; ) {
+            for (int end = Math.min(i + EXIT_CHECK_WORDS, wordsPerFilter); i < end; i++) {
+                difference += Long.bitCount(words[offsetA + i] & ~words[offsetB + i]);
+            }
+        }
+        return cardinalities[a] - difference;
+    }
+
+    /**
+     * Like boundedIntersectionCardinality() for the query filter and two filters in the same pass, as in
+     * intersectionCardinalities(). The pass stops once both comparisons exceeded their maximum difference.
+     */
+    private long boundedIntersectionCardinalities(int query, int b, int c, int maxDifferenceB, int maxDifferenceC) {
+        long[] words = this.words;
+        int offsetQuery = offset(query);
+        int offsetB = offset(b);
+        int offsetC = offset(c);
+        int differenceB = 0, differenceC = 0;
+        for (int i = 0; i < wordsPerFilter && (differenceB <= maxDifferenceB || differenceC <= maxDifferenceC); ) {
+            for (int end = Math.min(i + EXIT_CHECK_WORDS, wordsPerFilter); i < end; i++) {
+                long word = words[offsetQuery + i];
+                differenceB += Long.bitCount(word & ~words[offsetB + i]);
+                differenceC += Long.bitCount(word & ~words[offsetC + i]);
+            }
+        }
+        int cardinality = cardinalities[query];
+        return ((long) (cardinality - differenceB) << 32) | (cardinality - differenceC);
+    }
+
+    int intersectionCardinality(int a, int b) {
+        long[] words = this.words;
+        int offsetA = offset(a);
+        int offsetB = offset(b);
+        int intersect = 0;
+        for (int i = 0; i < wordsPerFilter; i++) {
+            intersect += Long.bitCount(words[offsetA + i] & words[offsetB + i]);
+        }
+        return intersect;
+    }
+
+    public int getCardinality(int record) {
+        return cardinalities[record];
+    }
+
+    public int getHashAreaSize() {
+        return hashAreaSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int offset(int record) {
+        return record * wordsPerFilter;
+    }
+}
@@ -4,7 +4,8 @@ public enum HashingMode {
     DOUBLE_HASHING,
     ENHANCED_DOUBLE_HASHING,
     TRIPLE_HASHING,
-    RANDOM_HASHING;
+    RANDOM_HASHING,
+    SIP_HASHING;
 
     public static HashingMode parseFromString(String s) {
         return switch (s.toUpperCase()) {
@@ -12,6 +13,7 @@ public enum HashingMode {
             case "ED" -> HashingMode.ENHANCED_DOUBLE_HASHING;
             case "TH" -> HashingMode.TRIPLE_HASHING;
             case "RH" -> HashingMode.RANDOM_HASHING;
+            case "SH" -> HashingMode.SIP_HASHING;
             default -> throw new IllegalArgumentException("Unexpected Value for Hashing Mode '" + s + "'");
         };
     }
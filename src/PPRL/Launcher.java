@@ -1,7 +1,7 @@
 package PPRL;
 
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.IntStream;
 
 import static java.util.Map.entry;
 
@@ -10,15 +10,18 @@ import static java.util.Map.entry;
  */
 public class Launcher {
 
+    static final int STREAMING_BATCH_SIZE = 10_000;
+
     Matcher matcher;
     Encoder encoder;
     Blocker blocker;
     EncoderParams encoderParams;
     MatcherParams matcherParams;
-    Person[] dataSet;
+    ColumnarDataset dataSet;
     ProgressHandler progressHandler;
     boolean blockingCheat, parallelBlockingMapCreation, parallelLinking, alwaysRecreateBloomFilters;
-    Map<String, Set<Person>> blockingMap;
+    BlockingIndex blockingIndex;
+    int streamingBatchSize = STREAMING_BATCH_SIZE; // records per batch in prepareStreaming()
 
     public Launcher(boolean blockingCheat, boolean parallelBlockingMapCreation, boolean parallelLinking, boolean alwaysRecreateBloomFilters) {
         this.blockingCheat = blockingCheat;
@@ -35,9 +38,21 @@ public class Launcher {
      * @param matcherParams Params used for linking.
      */
     public void prepare(Person[] dataSet, EncoderParams encoderParams, MatcherParams matcherParams, String personBloomFilterMapPath) {
+        setPersonAttributeWeights();
+        prepare(ColumnarDataset.of(dataSet), encoderParams, matcherParams, personBloomFilterMapPath);
+    }
+
+    /**
+     * Creates all Bloom filters, creates the blocking map. The schema of the dataset must be the one set by the Launcher,
+     * see ColumnarDataset.Builder.
+     * @param dataSet the dataset used for linking
+     * @param encoderParams Params used for Bloom Filter creation.
+     * @param matcherParams Params used for linking.
+     */
+    public void prepare(ColumnarDataset dataSet, EncoderParams encoderParams, MatcherParams matcherParams, String personBloomFilterMapPath) {
         this.dataSet = dataSet;
         setPersonAttributeWeights();
-        this.progressHandler = new ProgressHandler(dataSet.length, 1);
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
         this.encoderParams = encoderParams;
         this.matcherParams = matcherParams;
         prepareEncoder(encoderParams, personBloomFilterMapPath);
@@ -45,30 +60,119 @@ public class Launcher {
         prepareMatcher(dataSet, matcherParams);
     }
 
+    /**
+     * Like prepare(), but streams the dataset from file: each batch of records is encoded and assigned to its blocking
+     * keys right away, after which only the identifying attributes (IDs) of the records are kept. So the plaintext of the
+     * whole dataset is never on the heap at once, and memory scales with the Bloom filters instead of the raw records.
+     * @param dataFilePath path to the dataset used for linking
+     * @param encoderParams Params used for Bloom Filter creation.
+     * @param matcherParams Params used for linking.
+     */
+    public void prepareStreaming(String dataFilePath, EncoderParams encoderParams, MatcherParams matcherParams, String personBloomFilterMapPath) {
+        setPersonAttributeWeights();
+        this.encoderParams = encoderParams;
+        this.matcherParams = matcherParams;
+        this.encoder = new Encoder(encoderParams, personBloomFilterMapPath);
+        prepareBlocker();
+        // keep only the identifying attributes of the records
+        ColumnarDataset.Builder records = new ColumnarDataset.Builder(name -> Person.attributeWeights.get(name) == 0.0);
+        List<String[][]> blockingKeysOfBatches = new ArrayList<>();
+        encoder.beginBatches(alwaysRecreateBloomFilters);
+        int size = Util.readDatasetInBatches(dataFilePath, streamingBatchSize, batch -> {
+            BloomFilter[] bloomFilters = encoder.encodeBatch(batch);
+            String[][] blockingKeys = new String[batch.size()][];
+            IntStream indices = IntStream.range(0, batch.size());
+            if (parallelBlockingMapCreation) indices = indices.parallel();
+            indices.forEach(i -> blockingKeys[i] = blocker.getBlockingKeys(batch, i, bloomFilters[i]));
+            blockingKeysOfBatches.add(blockingKeys);
+            for (int i = 0; i < batch.size(); i++) {
+                records.add(batch.getPerson(i).attributeValues);
+            }
+        });
+        encoder.finishBatches();
+        this.dataSet = records.build();
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
+        String[][] blockingKeys = blockingKeysOfBatches.stream().flatMap(Arrays::stream).toArray(String[][]::new);
+        this.blockingIndex = BlockingIndex.build(size, record -> blockingKeys[record], parallelBlockingMapCreation);
+        System.out.println(blockingIndex.getStatistics());
+        createMatcher();
+    }
+
+    public int getDataSetSize() {
+        return dataSet.size();
+    }
+
     private void prepareEncoder(EncoderParams encoderParams, String personBloomFilterMapPath) {
         this.encoder = new Encoder(this.dataSet, encoderParams, personBloomFilterMapPath);
         // create all the bloom filters, or load from file if they exist
-        encoder.createPbmIfNotExist(true);
+        encoder.createPbmIfNotExist(alwaysRecreateBloomFilters);
     }
 
     private void prepareBlocker() {
-        this.blocker = new Blocker(this.matcherParams.blocking(), this.blockingCheat, this.parallelBlockingMapCreation);
+        this.blocker = new Blocker(this.matcherParams.blocking(), this.blockingCheat, this.parallelBlockingMapCreation, this.matcherParams.lsh());
     }
 
-    private void prepareMatcher(Person[] dataSet, MatcherParams matcherParams) {
-        this.blockingMap = this.blocker.getBlockingMap(this.dataSet);
-        this.matcher = new Matcher(dataSet, matcherParams, encoder.getPersonBloomFilterMap(), blockingMap, "A", "B", parallelLinking);
+    private void prepareMatcher(ColumnarDataset dataSet, MatcherParams matcherParams) {
+        this.blockingIndex = this.blocker.getBlockingIndex(this.dataSet, encoder.getFilterSlab());
+        createMatcher();
+    }
+
+    /**
+     * Creates the Matcher on the blocking index, applying meta-blocking and prefix filtering first if set in the matcher
+     * params. Prefix filtering is skipped if it would cost more than comparing the blocks, see PrefixFilter.paysOff().
+     * If both select candidate pairs, the Matcher scores those selected by both.
+     */
+    private void createMatcher() {
+        MetaBlockingParams metaBlockingParams = matcherParams.metaBlocking();
+        long[] candidatePairs = null;
+        if (metaBlockingParams != null && matcherParams.blocking()) {
+            MetaBlocker metaBlocker = new MetaBlocker(metaBlockingParams, dataSet, "A", "B", parallelBlockingMapCreation);
+            BlockingIndex purged = metaBlocker.purge(blockingIndex);
+            candidatePairs = metaBlocker.getCandidatePairs(purged);
+            System.out.println(metaBlocker.evaluate(blockingIndex, purged, candidatePairs));
+            this.blockingIndex = purged;
+        }
+        if (matcherParams.prefixFiltering()) {
+            PrefixFilter prefixFilter = new PrefixFilter(encoder.getFilterSlab(), dataSet, matcherParams.t(), "A", "B",
+                    parallelBlockingMapCreation);
+            if (prefixFilter.paysOff(blockingIndex)) {
+                long[] prefixCandidates = prefixFilter.getCandidatePairs(blockingIndex);
+                candidatePairs = candidatePairs == null ? prefixCandidates : intersect(candidatePairs, prefixCandidates);
+            }
+        }
+        this.matcher = new Matcher(dataSet, matcherParams, encoder.getFilterSlab(), blockingIndex, candidatePairs, "A", "B", parallelLinking);
+    }
+
+    /**
+     * @return the values contained in both of the given sorted arrays, sorted.
+     */
+    private static long[] intersect(long[] x, long[] y) {
+        long[] both = new long[Math.min(x.length, y.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < x.length && j < y.length; ) {
+            if (x[i] < y[j]) i++;
+            else if (x[i] > y[j]) j++;
+            else {
+                both[size++] = x[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(both, size);
     }
 
     /**
      * Invokes the linkage process.
-     * @return a set of all matches pairs.
+     * @return the pairs of records of all matches.
      */
-    public Set<PersonPair> getLinking() {
+    public Linking getLinking() {
         return matcher.getLinking();
     }
 
-    private static void setPersonAttributeWeights() {
+    /**
+     * Sets the schema of the datasets and the weights of the attributes in the Bloom filters.
+     */
+    static void setPersonAttributeWeights() {
         Person.setAttributeNamesAndWeights(
                 entry("sourceID", 0.0),
                 entry("globalID", 0.0),
@@ -0,0 +1,137 @@
+package PPRL;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The matching record pairs found by the Matcher, with their similarities. Each pair is a record of source A and a
+ * record of source B, packed into one long with the A-record in the high half. As the records of a pair always stem
+ * from different sources, this is a canonical form of the undirected pair: (a, b) and (b, a) are the same long, see
+ * contains(). The pairs are stored sorted and distinct in a primitive array, so a linking of n pairs takes 16n bytes
+ * and no record is materialized unless asked for.
+ */
+public class Linking {
+
+    final ColumnarDataset dataSet;
+    final long[] pairs;
+    final double[] similarities;
+
+    private Linking(ColumnarDataset dataSet, long[] pairs, double[] similarities) {
+        this.dataSet = dataSet;
+        this.pairs = pairs;
+        this.similarities = similarities;
+    }
+
+    public int size() {
+        return pairs.length;
+    }
+
+    /**
+     * @return the ID of the record of source A of the i-th pair.
+     */
+    public int getA(int i) {
+        return (int) (pairs[i] >>> 32);
+    }
+
+    /**
+     * @return the ID of the record of source B of the i-th pair.
+     */
+    public int getB(int i) {
+        return (int) pairs[i];
+    }
+
+    /**
+     * @return the i-th pair, packed as described above.
+     */
+    public long getPair(int i) {
+        return pairs[i];
+    }
+
+    /**
+     * @return the similarity of the Bloom filters of the i-th pair.
+     */
+    public double getSimilarity(int i) {
+        return similarities[i];
+    }
+
+    /**
+     * @return whether the given records are linked, regardless of their order.
+     */
+    public boolean contains(int x, int y) {
+        return Arrays.binarySearch(pairs, pack(x, y)) >= 0 || Arrays.binarySearch(pairs, pack(y, x)) >= 0;
+    }
+
+    public ColumnarDataset getDataSet() {
+        return dataSet;
+    }
+
+    /**
+     * Materializes the records of the i-th pair, the Person of the A-record being the first.
+     */
+    public PersonPair getPersonPair(int i) {
+        return new PersonPair(dataSet.getPerson(getA(i)), dataSet.getPerson(getB(i)));
+    }
+
+    /**
+     * Materializes the records of all pairs. Only meant for small linkings, see getPersonPair().
+     */
+    public Set<PersonPair> toPersonPairs() {
+        Set<PersonPair> personPairs = new HashSet<>();
+        for (int i = 0; i < size(); i++) {
+            personPairs.add(getPersonPair(i));
+        }
+        return personPairs;
+    }
+
+    static long pack(int a, int b) {
+        return ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    /**
+     * Growable arrays of pairs and their similarities. Not threadsafe: in parallel linking each thread fills a builder
+     * of its own, and the builders are concatenated with addAll().
+     */
+    static final class Builder {
+        long[] pairs = new long[16];
+        double[] similarities = new double[16];
+        int size;
+
+        void add(long pair, double similarity) {
+            if (size == pairs.length) grow(size + 1);
+            pairs[size] = pair;
+            similarities[size++] = similarity;
+        }
+
+        void addAll(Builder other) {
+            if (size + other.size > pairs.length) grow(size + other.size);
+            System.arraycopy(other.pairs, 0, pairs, size, other.size);
+            System.arraycopy(other.similarities, 0, similarities, size, other.size);
+            size += other.size;
+        }
+
+        private void grow(int minCapacity) {
+            int capacity = Math.max(minCapacity, 2 * pairs.length);
+            pairs = Arrays.copyOf(pairs, capacity);
+            similarities = Arrays.copyOf(similarities, capacity);
+        }
+
+        /**
+         * Sorts the pairs and removes duplicates. A pair added several times must have the same similarity each time.
+         */
+        Linking build(ColumnarDataset dataSet) {
+            long[] sorted = Arrays.copyOf(pairs, size);
+            Arrays.sort(sorted);
+            int distinct = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) sorted[distinct++] = sorted[i];
+            }
+            sorted = Arrays.copyOf(sorted, distinct);
+            double[] sortedSimilarities = new double[distinct];
+            for (int i = 0; i < size; i++) {
+                sortedSimilarities[Arrays.binarySearch(sorted, pairs[i])] = similarities[i];
+            }
+            return new Linking(dataSet, sorted, sortedSimilarities);
+        }
+    }
+}
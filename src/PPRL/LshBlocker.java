@@ -0,0 +1,90 @@
+package PPRL;
+
+import java.util.Random;
+
+/**
+ * Locality-sensitive hashing of Bloom filters by Hamming bit sampling. Each of the b bands samples r distinct, fixed
+ * random bit positions of the hash area, and the values of these bits form the band's blocking key. Two filters share
+ * a block if they agree on all sampled bits of at least one band, so no plaintext is needed for blocking.
+ * Two filters of hash area size l at Hamming distance d agree on the r bits of a band with probability
+ * p_r = (l - d) / l * (l - d - 1) / (l - 1) * ... * (l - d - r + 1) / (l - r + 1), about (1 - d / l)^r, and become
+ * candidates with probability 1 - (1 - p_r)^b. More rows make blocks smaller, more bands raise the recall.
+ */
+public class LshBlocker {
+
+    final LshParams parameters;
+    final int hashAreaSize;
+    final int[][] sampledBits; // sampledBits[band][row] is a bit position of the hash area
+
+    public LshBlocker(LshParams parameters, int hashAreaSize) {
+        if (parameters.bands() <= 0) throw new IllegalArgumentException("LSH needs at least one band.");
+        if (parameters.rows() <= 0 || parameters.rows() > 64) throw new IllegalArgumentException("LSH rows must be in 1..64.");
+        if (parameters.rows() > hashAreaSize) {
+            throw new IllegalArgumentException("LSH rows must not exceed the hash area size.");
+        }
+        this.parameters = parameters;
+        this.hashAreaSize = hashAreaSize;
+        this.sampledBits = new int[parameters.bands()][parameters.rows()];
+        // partial Fisher-Yates shuffle per band, whose first r positions are a sample without replacement
+        int[] positions = new int[hashAreaSize];
+        for (int i = 0; i < hashAreaSize; i++) positions[i] = i;
+        Random random = new Random(parameters.seed());
+        for (int[] band : sampledBits) {
+            for (int row = 0; row < band.length; row++) {
+                int j = row + random.nextInt(hashAreaSize - row);
+                int position = positions[j];
+                positions[j] = positions[row];
+                positions[row] = position;
+                band[row] = position;
+            }
+        }
+    }
+
+    /**
+     * Returns one blocking key per band for the filter whose words start at the given offset, e.g. of a FilterSlab.
+     */
+    public String[] getBlockingKeys(long[] words, int offset) {
+        String[] keys = new String[sampledBits.length];
+        for (int band = 0; band < sampledBits.length; band++) {
+            long bits = 0;
+            for (int position : sampledBits[band]) {
+                bits = (bits << 1) | ((words[offset + (position >>> 6)] >>> position) & 1L);
+            }
+            keys[band] = "LSH" + band + "_" + Long.toHexString(bits);
+        }
+        return keys;
+    }
+
+    public String[] getBlockingKeys(BloomFilter bloomFilter) {
+        checkSize(bloomFilter.getHashAreaSize());
+        return getBlockingKeys(bloomFilter.getWords(), 0);
+    }
+
+    public String[] getBlockingKeys(FilterSlab filters, int record) {
+        checkSize(filters.getHashAreaSize());
+        return getBlockingKeys(filters.words, filters.offset(record));
+    }
+
+    /**
+     * @return the probability that two filters at the given Hamming distance share at least one block.
+     */
+    public double candidateProbability(int hammingDistance) {
+        double p = 1.0;
+        for (int row = 0; row < parameters.rows(); row++) {
+            p *= Math.max(0.0, (double) (hashAreaSize - hammingDistance - row) / (hashAreaSize - row));
+        }
+        return 1.0 - Math.pow(1.0 - p, parameters.bands());
+    }
+
+    private void checkSize(int size) {
+        if (size != hashAreaSize) throw new IllegalArgumentException("Bloom filters must have same hash area size.");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LSH blocking: %d bands x %d rows, candidate probability %.3f / %.3f / %.3f at Hamming distance %d%% / %d%% / %d%% of l",
+                parameters.bands(), parameters.rows(),
+                candidateProbability(hashAreaSize * 5 / 100), candidateProbability(hashAreaSize / 10),
+                candidateProbability(hashAreaSize / 5), 5, 10, 20);
+    }
+}
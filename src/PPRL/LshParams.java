@@ -0,0 +1,10 @@
+package PPRL;
+
+/**
+ * Parameters of Hamming LSH blocking on Bloom filters, see LshBlocker.
+ * @param bands number of bands, i.e. blocking keys per record.
+ * @param rows number of sampled bits per band, at most 64.
+ * @param seed seed for choosing the sampled bit positions.
+ */
+public record LshParams(int bands, int rows, long seed) {
+}
@@ -1,49 +1,87 @@
 package PPRL;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 /**
  * Class for linking data points from two sources
  */
 public class Matcher {
 
-    Person[] dataSet;
+    ColumnarDataset dataSet;
     ProgressHandler progressHandler;
     MatcherParams parameters;
-    Map<String, BloomFilter> personBloomFilterMap;
-    Map<String, Set<Person>> blockingMap;
+    FilterSlab filters;
+    BlockingIndex blockingIndex;
+    long[] candidatePairs; // pairs surviving meta-blocking, or null to compare the records of each block
     String sourceNameA;
     String sourceNameB;
+    int sourceA;
+    int sourceB;
     boolean parallel;
+    LongAdder comparisons; // similarities computed by the last linking
+    LongAdder skippedComparisons; // pairs not compared again in another block they share, see isFirstCommonBlock()
+    LongAdder prunedComparisons; // pairs not compared as their cardinalities rule out a similarity of t
+    private CardinalitySortedBlocks sortedBlocks; // built on first use by getCandidates()
+    private BitSlicedBlocks slicedBlocks; // built on first use by getSlicedMatches()
+    private final ThreadLocal<Candidates> candidates = ThreadLocal.withInitial(Candidates::new);
 
     /**
      * Constructor for Linker object that can then be used to perform various linking methods on the data.
      * @param dataSet entire dataset
      * @param parameters program parameters
-     * @param personBloomFilterMap map containing person objects as keys and their BloomFilters as values. See Encoder.createPersonBloomFilterMap().
-     * @param blockingMap map containing the blocking keys and sets of records. See Person.getBlockingMap().
+     * @param filters the Bloom filters of all records, indexed by record ID. See Encoder.getFilterSlab().
+     * @param blockingIndex index of the blocking keys to the IDs of their records. See Blocker.getBlockingIndex().
      * @param sourceNameA name of source A
      * @param sourceNameB name of source B
      */
-    public Matcher(Person[] dataSet, MatcherParams parameters, Map<String, BloomFilter> personBloomFilterMap,
-                   Map<String, Set<Person>> blockingMap, String sourceNameA, String sourceNameB, boolean parallel) {
+    public Matcher(ColumnarDataset dataSet, MatcherParams parameters, FilterSlab filters,
+                   BlockingIndex blockingIndex, String sourceNameA, String sourceNameB, boolean parallel) {
+        this(dataSet, parameters, filters, blockingIndex, null, sourceNameA, sourceNameB, parallel);
+    }
+
+    /**
+     * Constructor for a Matcher that scores only the given candidate pairs in polygamous and semi-monogamous linking,
+     * see MetaBlocker. Stable marriage is computed on the blocks of the blocking index.
+     * @param candidatePairs candidate pairs packed by pair(), or null to compare the records of each block.
+     */
+    public Matcher(ColumnarDataset dataSet, MatcherParams parameters, FilterSlab filters, BlockingIndex blockingIndex,
+                   long[] candidatePairs, String sourceNameA, String sourceNameB, boolean parallel) {
+        this.candidatePairs = candidatePairs;
         this.dataSet = dataSet;
-        this.progressHandler = new ProgressHandler(dataSet.length, 1);
+        this.progressHandler = new ProgressHandler(dataSet.size(), 1);
         this.parameters = parameters;
-        this.personBloomFilterMap = personBloomFilterMap;
+        this.filters = filters;
         this.sourceNameA = sourceNameA;
         this.sourceNameB = sourceNameB;
-        this.blockingMap = blockingMap;
+        this.sourceA = dataSet.sourceCode(sourceNameA);
+        this.sourceB = dataSet.sourceCode(sourceNameB);
+        this.blockingIndex = blockingIndex;
         this.parallel = parallel;
+        this.comparisons = new LongAdder();
+        this.skippedComparisons = new LongAdder();
+        this.prunedComparisons = new LongAdder();
+    }
+
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    public long getSkippedComparisons() {
+        return skippedComparisons.sum();
+    }
+
+    public long getPrunedComparisons() {
+        return prunedComparisons.sum();
     }
 
     /**
      * Calculates a linking according to the linking mode set in the parameters record.
-     * @return A set of pairs representing the predicted matches.
+     * @return the pairs of records representing the predicted matches.
      */
-    public Set<PersonPair> getLinking() {
+    public Linking getLinking() {
         return switch (parameters.linkingMode()) {
             case POLYGAMOUS -> getPolygamousLinking();
             case SEMI_MONOGAMOUS_LEFT -> getSemiMonogamousLinking(true);
@@ -56,85 +94,171 @@ public class Matcher {
      * Undirected Linking.
      * Links the data points of the two sources A and B to each other in a stable marriage linking. That means that there exists
      * no records a and b who would both rather be matched with each other than their current partners.
-     * @return a set of person pairs representing the predicted matches.
+     * Pairs matched in several blocks are contained once.
+     * @return the pairs of records representing the predicted matches.
      */
-    public Set<PersonPair> getStableMarriageLinking() {
+    public Linking getStableMarriageLinking() {
         prepareProgressHandler();
-        System.out.println("Linking data points...");
-        Stream<String> blockingKeysStream = blockingMap.keySet().stream();
-        if (parallel) blockingKeysStream = blockingKeysStream.parallel();
-        Set<PersonPair> allPairs = Collections.synchronizedSet(new HashSet<>());
-        blockingKeysStream.forEach(blockingKey -> {
-            Set<PersonPair> pairs = new HashSet<>();
-            stableMarriageLinkingHelper(blockingMap.get(blockingKey), pairs);
-            allPairs.addAll(pairs);
-            progressHandler.updateProgress(blockingMap.get(blockingKey).size() * blockingMap.get(blockingKey).size());
-        });
-        progressHandler.finish();
-        return allPairs;
-    }
-
-    private void stableMarriageLinkingHelper(Set<Person> blockingSubSet, Set<PersonPair> pairs) {
-        List<Person[]> splitData = splitDataBySource(blockingSubSet.toArray(Person[]::new));
-        Person[] A = splitData.get(0);
-        Person[] B = splitData.get(1);
-        Map<Person, Set<Person>> hasProposedTo = new HashMap<>();
-        Person freeA = getAnySingle(pairs, A);
-        Person favoriteB = getFavoriteB(B, freeA, hasProposedTo);
-        while (freeA != null && favoriteB != null) {
-            hasProposedTo.putIfAbsent(freeA, new HashSet<>());
-            hasProposedTo.get(freeA).add(favoriteB);
-            if (isSingle(favoriteB, pairs)) {
-                pairs.add(new PersonPair(freeA, favoriteB));
-            } else {
-                Person currentA = getPartnerOf(favoriteB, pairs);
-                assert currentA != null;
-                double currentSimilarity = personBloomFilterMap.get(favoriteB.getAttributeValue("localID")).computeJaccardSimilarity(personBloomFilterMap.get(currentA.getAttributeValue("localID")));
-                double newSimilarity = personBloomFilterMap.get(favoriteB.getAttributeValue("localID")).computeJaccardSimilarity(personBloomFilterMap.get(freeA.getAttributeValue("localID")));
-                if (newSimilarity >= currentSimilarity) {
-                    if (!pairs.remove(new PersonPair(currentA, favoriteB))) throw new IllegalStateException();
-                    pairs.add(new PersonPair(freeA, favoriteB));
-                }
-            }
-            freeA = getAnySingle(pairs, A);
-            favoriteB = getFavoriteB(B, freeA, hasProposedTo);
+        try {
+            System.out.println("Linking data points...");
+            IntStream blocks = IntStream.range(0, blockingIndex.numberOfBlocks());
+            if (parallel) blocks = blocks.parallel();
+            Linking.Builder linking = blocks.collect(Linking.Builder::new, (pairs, block) -> {
+                stableMarriageLinkingHelper(block, pairs);
+                progressHandler.updateProgress((long) blockingIndex.blockSize(block) * blockingIndex.blockSize(block));
+            }, Linking.Builder::addAll);
+            progressHandler.finish();
+            return linking.build(dataSet);
+        } finally {
+            progressHandler.close();
         }
     }
 
-    private Person getPartnerOf(Person p, Set<PersonPair> pairs) {
-        for (PersonPair pair : pairs) {
-            if (pair.getA().equals(p)) return pair.getB();
-            if (pair.getB().equals(p)) return pair.getA();
+    /**
+     * Gale-Shapley on the records of one block: the free record of source A with the lowest ID proposes to its favorite
+     * record of source B it has not proposed to yet, which accepts if it is single or if the proposer is at least as
+     * similar as its current partner. Linking ends when every record of A is paired, or when the proposing record has
+     * proposed to all records of B. Partners are held in arrays indexed by position in the block, and each record of A
+     * walks its preference list, see Preferences, so no proposal scans the pairs found so far.
+     */
+    private void stableMarriageLinkingHelper(int block, Linking.Builder pairs) {
+        int[][] splitData = splitDataBySource(block);
+        int[] A = splitData[0];
+        int[] B = splitData[1];
+        if (A.length == 0 || B.length == 0) return;
+        int[] partnerOfB = new int[B.length]; // position in A, or -1
+        double[] partnerSimilarity = new double[B.length];
+        Arrays.fill(partnerOfB, -1);
+        BitSet freeA = new BitSet(A.length);
+        freeA.set(0, A.length);
+        Preferences[] preferences = new Preferences[A.length];
+        for (int a = freeA.nextSetBit(0); a >= 0; a = freeA.nextSetBit(0)) {
+            if (preferences[a] == null) preferences[a] = new Preferences(A[a], B);
+            int b = preferences[a].next();
+            if (b < 0) break;
+            double similarity = preferences[a].getSimilarity();
+            if (partnerOfB[b] < 0 || similarity >= partnerSimilarity[b]) {
+                if (partnerOfB[b] >= 0) freeA.set(partnerOfB[b]);
+                partnerOfB[b] = a;
+                partnerSimilarity[b] = similarity;
+                freeA.clear(a);
+            }
+        }
+        for (int b = 0; b < B.length; b++) {
+            if (partnerOfB[b] >= 0) pairs.add(pair(A[partnerOfB[b]], B[b]), partnerSimilarity[b]);
         }
-        return null;
     }
 
-    private boolean isSingle(Person person, Set<PersonPair> pairs) {
-        return pairs.stream().noneMatch(pair -> pair.contains(person));
-    }
+    /**
+     * Preference list of a record of source A over the records of source B in a block: by descending similarity, ties
+     * in the order of B. It is computed lazily in chunks of the best remaining records, the first of PREFERENCE_CHUNK
+     * records and each further one twice as large as the one before, each selected by a heap in one pass over B. So a
+     * record that is accepted early costs one pass over B, a record that proposes to all of B costs
+     * O(|B| log^2 |B|) rather than the O(|B|^2) of fixed chunks, and a list takes memory in proportion to the proposals
+     * made from it.
+     */
+    private final class Preferences {
+        private static final int PREFERENCE_CHUNK = 16;
+        private final int a;
+        private final int[] B;
+        private int[] chunk = new int[0]; // positions in B
+        private double[] chunkSimilarities = new double[0];
+        private int chunkSize, position = -1;
+        private double lastSimilarity = Double.POSITIVE_INFINITY; // the last proposed record, all before it are done
+        private int lastB = -1;
 
-    private Person getFavoriteB(Person[] Bs, Person freeA, Map<Person, Set<Person>> hasProposedTo) {
-        if (freeA == null) return null;
-        final AtomicReference<Person> favoriteB = new AtomicReference<>(null);
-        final AtomicReference<Double> similarity = new AtomicReference<>(0.0);
-        Stream<Person> personStream = Arrays.stream(Bs);
-        if (parallel) personStream = personStream.parallel();
-        personStream.forEach(B -> {
-            if (hasProposedTo.containsKey(freeA) && hasProposedTo.get(freeA).contains(B)) return;
-            double newSimilarity = personBloomFilterMap.get(freeA.getAttributeValue("localID")).computeJaccardSimilarity(personBloomFilterMap.get(B.getAttributeValue("localID")));
-            if (favoriteB.get() == null || newSimilarity > similarity.get()) {
-                favoriteB.set(B);
-                similarity.set(newSimilarity);
+        Preferences(int a, int[] B) {
+            this.a = a;
+            this.B = B;
+        }
+
+        /**
+         * @return the position in B of the next record to propose to, or -1 if all have been proposed to.
+         */
+        int next() {
+            if (position >= 0) {
+                lastSimilarity = chunkSimilarities[position];
+                lastB = chunk[position];
             }
-        });
-        return favoriteB.get();
-    }
+            if (++position == chunkSize) refill();
+            return position < chunkSize ? chunk[position] : -1;
+        }
+
+        /**
+         * @return the similarity of the record returned by the last call to next().
+         */
+        double getSimilarity() {
+            return chunkSimilarities[position];
+        }
+
+        /**
+         * Selects the best records not proposed to yet into the next chunk. The chunk is a heap with the worst record
+         * at its root while B is scanned, and is then sorted by moving the root to the end one by one.
+         */
+        private void refill() {
+            int capacity = Math.min(B.length, Math.max(PREFERENCE_CHUNK, 2 * chunk.length));
+            if (capacity > chunk.length) {
+                chunk = new int[capacity];
+                chunkSimilarities = new double[capacity];
+            }
+            chunkSize = 0;
+            position = 0;
+            for (int b = 0; b < B.length; b++) {
+                double s = similarity(a, B[b]);
+                if (s > lastSimilarity || (s == lastSimilarity && b <= lastB)) continue; // already proposed to
+                if (chunkSize < capacity) {
+                    chunk[chunkSize] = b;
+                    chunkSimilarities[chunkSize] = s;
+                    siftUp(chunkSize++);
+                } else if (isWorse(chunk[0], chunkSimilarities[0], b, s)) {
+                    chunk[0] = b;
+                    chunkSimilarities[0] = s;
+                    siftDown(0, chunkSize);
+                }
+            }
+            for (int end = chunkSize - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+        }
+
+        /**
+         * @return whether record b with similarity s comes after record c with similarity t in the preference list.
+         */
+        private static boolean isWorse(int b, double s, int c, double t) {
+            return s < t || s == t && b > c;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!isWorse(chunk[i], chunkSimilarities[i], chunk[parent], chunkSimilarities[parent])) return;
+                swap(i, parent);
+                i = parent;
+            }
+        }
 
-    private Person getAnySingle(Set<PersonPair> pairs, Person[] people) {
-        for (Person p : people) {
-            if (pairs.stream().noneMatch(pair -> pair.contains(p))) return p;
+        private void siftDown(int i, int size) {
+            while (2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && isWorse(chunk[child + 1], chunkSimilarities[child + 1], chunk[child],
+                        chunkSimilarities[child])) {
+                    child++;
+                }
+                if (!isWorse(chunk[child], chunkSimilarities[child], chunk[i], chunkSimilarities[i])) return;
+                swap(i, child);
+                i = child;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int b = chunk[i];
+            chunk[i] = chunk[j];
+            chunk[j] = b;
+            double s = chunkSimilarities[i];
+            chunkSimilarities[i] = chunkSimilarities[j];
+            chunkSimilarities[j] = s;
         }
-        return null;
     }
 
     /**
@@ -142,111 +266,435 @@ public class Matcher {
      * Links the data points of the two sources to each other in a semi-monogamous manner. That means that each record
      * from source A gets its ideal match from source B. Hence, each A-record can only take part in up to one relation
      * but each B-record can take part in any number of relations.
-     * @return a set of person pairs representing the predicted matches.
+     * The best match of each record is searched by one task that owns the record, so the tasks share no state and need
+     * no locks. Of equally similar matches, the one compared last wins, i.e. the highest record in the last block.
+     * @return the pairs of records representing the predicted matches.
      */
-    public Set<PersonPair> getSemiMonogamousLinking(boolean leftIsMonogamous) {
+    public Linking getSemiMonogamousLinking(boolean leftIsMonogamous) {
         prepareProgressHandler();
-        System.out.println("Linking data points...");
-        Map<Person, Match> linkingWithSimilarities = Collections.synchronizedMap(new HashMap<>());
-        Stream<String> blockingKeysStream = blockingMap.keySet().stream();
-        if (parallel) blockingKeysStream = blockingKeysStream.parallel();
-        blockingKeysStream.forEach(blockingKey ->
-                semiMonogamousLinkingHelper(blockingMap.get(blockingKey), linkingWithSimilarities, leftIsMonogamous));
-        Set<PersonPair> linking = new HashSet<>();
-        for (Person a : linkingWithSimilarities.keySet()) {
-            linking.add(new PersonPair(a, linkingWithSimilarities.get(a).getPerson()));
+        try {
+            System.out.println("Linking data points...");
+            int[] partners = new int[dataSet.size()]; // best match of each record of the monogamous source, or -1
+            double[] similarities = new double[dataSet.size()];
+            Arrays.fill(partners, -1);
+            if (candidatePairs != null) {
+                // group the candidates by the record of the monogamous source, keeping its matches in ascending order
+                long[] pairs = leftIsMonogamous ? candidatePairs : swap(candidatePairs);
+                int[] runStarts = getRunStarts(pairs);
+                IntStream runs = IntStream.range(0, runStarts.length - 1);
+                if (parallel) runs = runs.parallel();
+                runs.forEach(run -> {
+                    int a = getA(pairs[runStarts[run]]);
+                    getBestMatch(a, pairs, runStarts[run], runStarts[run + 1], partners, similarities);
+                });
+            } else {
+                String monogamousSource = leftIsMonogamous ? sourceNameA : sourceNameB;
+                IntStream records = Arrays.stream(dataSet.getSourcePartition(monogamousSource));
+                if (parallel) records = records.parallel();
+                records.forEach(a -> getBestMatch(a, leftIsMonogamous ? sourceB : sourceA, partners, similarities));
+            }
+            printComparisons();
+            Linking.Builder linking = new Linking.Builder();
+            for (int a = 0; a < partners.length; a++) {
+                int b = partners[a];
+                if (b >= 0) linking.add(leftIsMonogamous ? pair(a, b) : pair(b, a), similarities[a]);
+            }
+            progressHandler.finish();
+            return linking.build(dataSet);
+        } finally {
+            progressHandler.close();
         }
-        progressHandler.finish();
-        return linking;
+    }
+
+    /**
+     * Helper method for getSemiMonogamousLinking. Compares the given record with the records of the other source in
+     * each of its blocks, skipping pairs already compared in a lower block. Stores the most similar record with a
+     * similarity of at least t and its similarity in partners[a] and similarities[a], if there is one.
+     */
+    private void getBestMatch(int a, int otherSource, int[] partners, double[] similarities) {
+        Candidates candidates = getMatches(a, otherSource, true);
+        int bestMatch = -1;
+        double bestSimilarity = 0.0;
+        for (int i = 0; i < candidates.found; i++) {
+            if (bestMatch < 0 || candidates.similarities[i] >= bestSimilarity) {
+                bestMatch = candidates.records[candidates.matches[i]];
+                bestSimilarity = candidates.similarities[i];
+            }
+        }
+        partners[a] = bestMatch;
+        similarities[a] = bestSimilarity;
+    }
+
+    /**
+     * Like getBestMatch(a, otherSource, ...), but compares the record only with the second records of pairs[from] to
+     * pairs[to - 1]. Ties are broken as if the pairs were compared in their first common block, see isComparedAfter().
+     */
+    private void getBestMatch(int a, long[] pairs, int from, int to, int[] partners, double[] similarities) {
+        int bestMatch = -1;
+        double bestSimilarity = 0.0;
+        for (int i = from; i < to; i++) {
+            int b = getB(pairs[i]);
+            double similarity = similarity(a, b, parameters.t());
+            if (similarity >= parameters.t() && (bestMatch < 0 || similarity > bestSimilarity
+                    || similarity == bestSimilarity && isComparedAfter(a, b, bestMatch))) {
+                bestMatch = b;
+                bestSimilarity = similarity;
+            }
+        }
+        progressHandler.updateProgress(to - from);
+        partners[a] = bestMatch;
+        similarities[a] = bestSimilarity;
+    }
+
+    /**
+     * @return whether getBestMatch(a, otherSource, ...) compares record a with record b after comparing it with record
+     * c, i.e. whether their first common block with a is higher, or is the same and b comes later in its postings.
+     */
+    private boolean isComparedAfter(int a, int b, int c) {
+        int blockB = blockingIndex.firstCommonBlock(a, b), blockC = blockingIndex.firstCommonBlock(a, c);
+        return blockB > blockC || blockB == blockC && b > c;
+    }
+
+    /**
+     * @return the given pairs with their records swapped, sorted.
+     */
+    private long[] swap(long[] pairs) {
+        long[] swapped = new long[pairs.length];
+        for (int i = 0; i < pairs.length; i++) swapped[i] = pair(getB(pairs[i]), getA(pairs[i]));
+        if (parallel) Arrays.parallelSort(swapped);
+        else Arrays.sort(swapped);
+        return swapped;
+    }
+
+    /**
+     * @return the positions in the given sorted pairs where the first record changes, followed by pairs.length.
+     */
+    private static int[] getRunStarts(long[] pairs) {
+        int[] runStarts = new int[pairs.length + 1];
+        int runs = 0;
+        for (int i = 0; i < pairs.length; i++) {
+            if (i == 0 || getA(pairs[i]) != getA(pairs[i - 1])) runStarts[runs++] = i;
+        }
+        runStarts[runs++] = pairs.length;
+        return Arrays.copyOf(runStarts, runs);
     }
 
     /**
      * Undirected linking.
      * Links the data points of the two sources to each other in a polygamous manner. That means each data point can take
      * part in any number of relations. But each relation is only contained in the resulting set once.
-     * @return a set of person pairs representing the predicted matches.
+     * The records of source A are split between the threads, each collecting its matches in a Linking.Builder of its
+     * own, and the builders are concatenated at the end. As each pair is compared only once, no match is found twice.
+     * @return the pairs of records representing the predicted matches.
      */
-    public Set<PersonPair> getPolygamousLinking() {
+    public Linking getPolygamousLinking() {
         prepareProgressHandler();
-        System.out.println("Linking data points...");
-        Set<PersonPair> linking = Collections.synchronizedSet(new HashSet<>());
-        Stream<String> blockingKeysStream = blockingMap.keySet().stream();
-        if (parallel) blockingKeysStream = blockingKeysStream.parallel();
-        blockingKeysStream.forEach(blockingKey ->
-                polygamousLinkingHelper(blockingMap.get(blockingKey), linking));
-        progressHandler.finish();
-        return linking;
-    }
-
-    /**
-     * Helper method for getSemiMonogamousLinking
-     */
-    private void semiMonogamousLinkingHelper(Set<Person> blockingSubSet, Map<Person, Match> linking, boolean leftIsMonogamous) {
-        List<Person[]> splitData = splitDataBySource(blockingSubSet.toArray(Person[]::new));
-        Person[] A = splitData.get(0);
-        Person[] B = splitData.get(1);
-        Stream<Person> outerStream = Arrays.stream(leftIsMonogamous ? A : B);
-        if (parallel) outerStream = outerStream.parallel();
-        outerStream.forEach(a -> Arrays.stream(leftIsMonogamous ? B : A).forEach(b-> {
-            double similarity = personBloomFilterMap.get(a.getAttributeValue("localID")).computeJaccardSimilarity(personBloomFilterMap.get(b.getAttributeValue("localID")));
-            synchronized (linking) {
-                if (similarity >= parameters.t() && (!linking.containsKey(a) || similarity >= linking.get(a).getSimilarity())) {
-                    linking.put(a, new Match(b, similarity));
-                }
+        try {
+            System.out.println("Linking data points...");
+            Linking.Builder linking;
+            if (candidatePairs != null) {
+                LongStream pairs = Arrays.stream(candidatePairs);
+                if (parallel) pairs = pairs.parallel();
+                linking = pairs.collect(Linking.Builder::new, (matches, pair) -> {
+                    progressHandler.updateProgress();
+                    double similarity = similarity(getA(pair), getB(pair), parameters.t());
+                    if (similarity >= parameters.t()) matches.add(pair, similarity);
+                }, Linking.Builder::addAll);
+            } else {
+                IntStream records = Arrays.stream(dataSet.getSourcePartition(sourceNameA));
+                if (parallel) records = records.parallel();
+                linking = records.collect(Linking.Builder::new, this::polygamousLinkingHelper, Linking.Builder::addAll);
             }
-            progressHandler.updateProgress();
-        }));
+            printComparisons();
+            progressHandler.finish();
+            return linking.build(dataSet);
+        } finally {
+            progressHandler.close();
+        }
+    }
+
+    /**
+     * Helper method for getPolygamousLinking. Compares the given record of source A with the records of source B in
+     * each of its blocks, skipping pairs already compared in a lower block.
+     */
+    private void polygamousLinkingHelper(Linking.Builder matches, int a) {
+        Candidates candidates = getMatches(a, sourceB, false);
+        for (int i = 0; i < candidates.found; i++) {
+            matches.add(pair(a, candidates.records[candidates.matches[i]]), candidates.similarities[i]);
+        }
+    }
+
+    /**
+     * Scores record a against the records of the given source in each of its blocks that are not compared with it in a
+     * lower block, as selected by the comparison strategy of the parameters.
+     * @param inPostingOrder see getCandidates().
+     * @return the buffers of the current thread, holding the records reaching a similarity of t in
+     * records[matches[i]] and their similarities in similarities[i], for i from 0 to found - 1, block by block.
+     */
+    private Candidates getMatches(int a, int otherSource, boolean inPostingOrder) {
+        if (parameters.comparisonStrategy() == ComparisonStrategy.BIT_SLICED) {
+            return getSlicedMatches(a, otherSource, inPostingOrder);
+        }
+        Candidates candidates = getCandidates(a, otherSource, inPostingOrder);
+        candidates.found = filters.filterJaccardSimilarities(a, candidates.records, 0, candidates.size, parameters.t(),
+                candidates.matches, candidates.similarities);
+        return candidates;
     }
 
     /**
-     * Helper method for getPolygamousLinking
+     * Like getMatches() with the ROW_WISE strategy, but counts the intersections of record a with all records of the
+     * source in each sliced block at once, see BitSlicedBlocks. Those records are all scored, as the length filter
+     * would save no work there. Blocks that are not sliced are compared row-wise.
      */
-    private void polygamousLinkingHelper(Set<Person> blockingSubSet, Set<PersonPair> linking) {
-        Util.checkIfNoneNull(blockingSubSet);
-        Person[] blockingSubSetAsArray = blockingSubSet.toArray(Person[]::new);
-        Util.checkIfNoneNull(blockingSubSetAsArray);
-        List<Person[]> splitData = splitDataBySource(blockingSubSetAsArray);
-        Person[] A = splitData.get(0);
-        Person[] B = splitData.get(1);
-        Stream<Person> outerStream = parallel ? Arrays.stream(A) : Arrays.stream(A).parallel();
-        outerStream.forEach(a -> Arrays.stream(B).forEach(b-> {
-            double similarity = personBloomFilterMap.get(a.getAttributeValue("localID")).computeJaccardSimilarity(personBloomFilterMap.get(b.getAttributeValue("localID")));
-            if (similarity >= parameters.t()) {
-                linking.add(new PersonPair(a, b));
+    private Candidates getSlicedMatches(int a, int otherSource, boolean inPostingOrder) {
+        Candidates candidates = this.candidates.get();
+        BitSlicedBlocks slicedBlocks = getSlicedBlocks();
+        if (candidates.positions.length < filters.getHashAreaSize()) {
+            candidates.positions = new int[filters.getHashAreaSize()];
+        }
+        int cardinality = BitSlicedBlocks.getPositions(filters, a, candidates.positions);
+        double t = parameters.t(), ratio = t / (1 + t);
+        int size = 0, found = 0;
+        int[] blocks = blockingIndex.blocksOf(a);
+        for (int block : blocks) {
+            int[] blockRecords = slicedBlocks.getRecords(block, otherSource);
+            if (blockRecords == null) {
+                int blockStart = size;
+                size = addCandidates(a, block, otherSource, inPostingOrder, candidates, size);
+                int blockFound = filters.filterJaccardSimilarities(a, candidates.records, blockStart, size, t,
+                        candidates.blockMatches, candidates.blockSimilarities);
+                System.arraycopy(candidates.blockMatches, 0, candidates.matches, found, blockFound);
+                System.arraycopy(candidates.blockSimilarities, 0, candidates.similarities, found, blockFound);
+                found += blockFound;
+                continue;
+            }
+            if (candidates.intersections.length < blockRecords.length) {
+                candidates.intersections = new int[blockRecords.length];
+            }
+            slicedBlocks.intersect(block, otherSource, candidates.positions, cardinality, candidates.counters,
+                    candidates.intersections);
+            int compared = 0;
+            for (int i = 0; i < blockRecords.length; i++) {
+                int b = blockRecords[i];
+                if (blocks.length > 1 && !isFirstCommonBlock(a, b, block)) continue;
+                compared++;
+                int intersect = candidates.intersections[i], cardinalityB = filters.getCardinality(b);
+                if (intersect < FilterSlab.minIntersection(cardinality, cardinalityB, ratio)) continue;
+                double similarity = 1.0 * intersect / (cardinality + cardinalityB - intersect);
+                if (similarity < t) continue;
+                if (size == candidates.records.length) candidates.grow();
+                candidates.records[size] = b;
+                candidates.matches[found] = size++;
+                candidates.similarities[found++] = similarity;
+            }
+            comparisons.add(compared);
+            progressHandler.updateProgress(blockRecords.length);
+        }
+        candidates.size = size;
+        candidates.found = found;
+        return candidates;
+    }
+
+    /**
+     * Collects the records of the given source in the blocks of record a that are not compared with it in a lower
+     * block, so that they can be scored in one call to the FilterSlab.
+     * @param inPostingOrder whether to put the candidates of each block back into the order of its postings, so that
+     * ties between equal similarities resolve as without the length filter.
+     * @return the buffers of the current thread, holding the candidates in records[0] to records[size - 1].
+     */
+    private Candidates getCandidates(int a, int otherSource, boolean inPostingOrder) {
+        Candidates candidates = this.candidates.get();
+        int size = 0;
+        for (int block : blockingIndex.blocksOf(a)) {
+            size = addCandidates(a, block, otherSource, inPostingOrder, candidates, size);
+        }
+        candidates.size = size;
+        return candidates;
+    }
+
+    /**
+     * Appends the candidates of record a in the given block to candidates.records[size] onwards. Only the records within
+     * the length filter window of the block are looked at, see CardinalitySortedBlocks, the others are counted as
+     * pruned. Counts the candidates as comparisons and all records of the source in the block as progress.
+     * @return the new size.
+     */
+    private int addCandidates(int a, int block, int otherSource, boolean inPostingOrder, Candidates candidates,
+                              int size) {
+        CardinalitySortedBlocks sortedBlocks = getSortedBlocks();
+        int[] records = sortedBlocks.records;
+        int from = sortedBlocks.start(block, otherSource), to = sortedBlocks.end(block, otherSource);
+        long window = sortedBlocks.window(from, to, filters.getCardinality(a), parameters.t());
+        int first = (int) (window >>> 32), end = (int) window;
+        int blockStart = size;
+        for (int i = first; i < end; i++) {
+            int b = records[i];
+            if (!isFirstCommonBlock(a, b, block)) continue;
+            if (size == candidates.records.length) candidates.grow();
+            candidates.records[size++] = b;
+        }
+        if (inPostingOrder) Arrays.sort(candidates.records, blockStart, size);
+        comparisons.add(size - blockStart);
+        prunedComparisons.add(to - from - (end - first));
+        progressHandler.updateProgress(to - from);
+        return size;
+    }
+
+    private CardinalitySortedBlocks getSortedBlocks() {
+        CardinalitySortedBlocks sortedBlocks = this.sortedBlocks;
+        if (sortedBlocks == null) {
+            synchronized (this) {
+                if (this.sortedBlocks == null) {
+                    this.sortedBlocks = new CardinalitySortedBlocks(blockingIndex, filters, dataSet, sourceA, sourceB, parallel);
+                }
+                sortedBlocks = this.sortedBlocks;
+            }
+        }
+        return sortedBlocks;
+    }
+
+    private BitSlicedBlocks getSlicedBlocks() {
+        BitSlicedBlocks slicedBlocks = this.slicedBlocks;
+        if (slicedBlocks == null) {
+            synchronized (this) {
+                if (this.slicedBlocks == null) {
+                    this.slicedBlocks = new BitSlicedBlocks(blockingIndex, filters, dataSet, sourceA, sourceB, parallel);
+                }
+                slicedBlocks = this.slicedBlocks;
             }
-            progressHandler.updateProgress();
-        }));
+        }
+        return slicedBlocks;
+    }
+
+    private double similarity(int a, int b) {
+        comparisons.increment();
+        return filters.computeJaccardSimilarity(a, b);
+    }
+
+    /**
+     * @return the similarity of the given records if it is at least t, and a value below t otherwise, see
+     * FilterSlab.computeJaccardSimilarity(int, int, double).
+     */
+    private double similarity(int a, int b, double t) {
+        if (!FilterSlab.mayReachJaccard(filters.getCardinality(a), filters.getCardinality(b), t)) {
+            prunedComparisons.increment();
+            return Double.NEGATIVE_INFINITY;
+        }
+        comparisons.increment();
+        return filters.computeJaccardSimilarity(a, b, t);
+    }
+
+    /**
+     * Checks whether the given block is the lowest-ordered block that both records share. Records sharing several blocks
+     * are only scored in that one, which gives the same polygamous and semi-monogamous linking as scoring them in each.
+     * Stable marriage is computed per block and does not skip pairs.
+     */
+    private boolean isFirstCommonBlock(int a, int b, int block) {
+        if (blockingIndex.firstCommonBlock(a, b) == block) return true;
+        skippedComparisons.increment();
+        return false;
+    }
+
+    private void printComparisons() {
+        long compared = getComparisons(), skipped = getSkippedComparisons(), pruned = getPrunedComparisons();
+        long total = compared + skipped + pruned;
+        System.out.printf("Compared %d record pairs, skipped %d comparisons repeated across blocks and pruned %d by " +
+                        "length filter (%.1f%% saved).%n",
+                compared, skipped, pruned, total == 0 ? 0.0 : 100.0 * (skipped + pruned) / total);
     }
 
     /**
-     * Splits the dataset into two equally sized subsets by the sourceID attribute. Therefore, the dataset is expected to
-     * have only entries with sourceID = this.sourceNameA or sourceID = this.sourceNameB.
-     * @param dataSet the array to be split.
-     * @return a list with two Person-Arrays, one for each sourceID.
+     * Pair of a record of source A and a record of source B, packed into a long.
      */
-    private List<Person[]> splitDataBySource(Person[] dataSet) {
-        List<Person> a = new ArrayList<>();
-        List<Person> b = new ArrayList<>();
-        for (Person p : dataSet) {
-            if (p.getAttributeValue("sourceID").equals(sourceNameA)) {
-                a.add(p);
-            } else if (p.getAttributeValue("sourceID").equals(sourceNameB)) {
-                b.add(p);
+    static long pair(int a, int b) {
+        return Linking.pack(a, b);
+    }
+
+    static int getA(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    static int getB(long pair) {
+        return (int) pair;
+    }
+
+    /**
+     * Splits the records of the given block by their sourceID. Therefore, the records are expected to have only
+     * sourceID = this.sourceNameA or sourceID = this.sourceNameB.
+     * @param block the ID of the block to be split.
+     * @return two arrays of record IDs, one for each sourceID.
+     */
+    private int[][] splitDataBySource(int block) {
+        int[] postings = blockingIndex.getPostings();
+        int start = blockingIndex.start(block), end = blockingIndex.end(block);
+        int[] a = new int[end - start];
+        int[] b = new int[end - start];
+        int sizeA = 0, sizeB = 0;
+        for (int i = start; i < end; i++) {
+            int record = postings[i];
+            int source = dataSet.getSourceCode(record);
+            if (source == sourceA) {
+                a[sizeA++] = record;
+            } else if (source == sourceB) {
+                b[sizeB++] = record;
             }
         }
-        List<Person[]> resultData = new ArrayList<>();
-        resultData.add(a.toArray(Person[]::new));
-        resultData.add(b.toArray(Person[]::new));
-        return resultData;
+        return new int[][]{Arrays.copyOf(a, sizeA), Arrays.copyOf(b, sizeB)};
     }
 
+    /**
+     * Resets the counters and sets the total progress to the number of record pairs that the linking visits: the
+     * candidate pairs, the pairs of a record of source A and a record of source B in each block, or for stable marriage
+     * the squared block sizes.
+     */
     private void prepareProgressHandler() {
-        progressHandler.reset();
+        comparisons.reset();
+        skippedComparisons.reset();
+        prunedComparisons.reset();
         long totalSize = 0;
-        // determine total size for progressHandler
-        for (String key : blockingMap.keySet()) {
-            totalSize += (long) blockingMap.get(key).size() * blockingMap.get(key).size();
+        if (candidatePairs != null && parameters.linkingMode() != LinkingMode.STABLE_MARRIAGE) {
+            totalSize = candidatePairs.length;
+        } else if (parameters.linkingMode() == LinkingMode.STABLE_MARRIAGE) {
+            for (int block = 0; block < blockingIndex.numberOfBlocks(); block++) {
+                totalSize += (long) blockingIndex.blockSize(block) * blockingIndex.blockSize(block);
+            }
+        } else {
+            int[] postings = blockingIndex.getPostings();
+            for (int block = 0; block < blockingIndex.numberOfBlocks(); block++) {
+                long sizeA = 0, sizeB = 0;
+                for (int i = blockingIndex.start(block); i < blockingIndex.end(block); i++) {
+                    int source = dataSet.getSourceCode(postings[i]);
+                    if (source == sourceA) sizeA++;
+                    else if (source == sourceB) sizeB++;
+                }
+                totalSize += sizeA * sizeB;
+            }
         }
         progressHandler.setTotalSize(totalSize);
+        progressHandler.reset();
+    }
+
+    /**
+     * Per thread buffers of getCandidates() and getSlicedMatches(), and of the scores of the candidates.
+     */
+    private static final class Candidates {
+        int[] records = new int[64];
+        int[] matches = new int[64]; // positions in records of the candidates reaching the threshold
+        double[] similarities = new double[64];
+        int[] blockMatches = new int[64]; // matches and similarities of one block, see getSlicedMatches()
+        double[] blockSimilarities = new double[64];
+        int[] positions = new int[0]; // set positions of the filter of the query record
+        int[] intersections = new int[0]; // intersections with the records of a sliced block
+        long[] counters = new long[32]; // bit-sliced intersections of a group of 64 records, see BitSlicedBlocks
+        int size;
+        int found;
+
+        void grow() {
+            int capacity = 2 * records.length;
+            records = Arrays.copyOf(records, capacity);
+            matches = Arrays.copyOf(matches, capacity);
+            similarities = Arrays.copyOf(similarities, capacity);
+            blockMatches = new int[capacity];
+            blockSimilarities = new double[capacity];
+        }
     }
 }
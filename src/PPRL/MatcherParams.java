@@ -1,4 +1,20 @@
 package PPRL;
 
-public record MatcherParams(LinkingMode linkingMode, boolean blocking, double t) {
-}
\ No newline at end of file
+/**
+ * @param lsh parameters of LSH blocking on the Bloom filters, or null to block on the plaintext attributes.
+ * @param metaBlocking parameters of block purging and edge pruning after blocking, or null to compare all records of
+ *                     each block.
+ * @param prefixFiltering whether to score only the pairs sharing a bit of their prefixes, see PrefixFilter. Applies to
+ *                        polygamous and semi-monogamous linking, also with blocking turned off, unless the index
+ *                        would cost more than comparing the blocks.
+ * @param comparisonStrategy how the records of each block are compared in polygamous and semi-monogamous linking
+ *                           without candidate pairs, see ComparisonStrategy.
+ */
+public record MatcherParams(LinkingMode linkingMode, boolean blocking, double t, LshParams lsh,
+                            MetaBlockingParams metaBlocking, boolean prefixFiltering,
+                            ComparisonStrategy comparisonStrategy) {
+
+    public MatcherParams(LinkingMode linkingMode, boolean blocking, double t) {
+        this(linkingMode, blocking, t, null, null, false, ComparisonStrategy.ROW_WISE);
+    }
+}
@@ -0,0 +1,186 @@
+package PPRL;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Meta-blocking between the Blocker and the Matcher. First, blocks with more than maxBlockSize records are purged, as
+ * they stem from frequent keys and hardly separate matches from non-matches. Then the blocking graph is built: records
+ * of source A and source B are connected by an edge if they share at least one block, and the edge is weighted by the
+ * blocks they share, see WeightingScheme. Edges below the minimum weight are pruned (by default the mean weight, i.e.
+ * weighted edge pruning), and the Matcher only scores the remaining candidate pairs.
+ * The graph is built node by node: for each record of source A the records of source B in its blocks are collected and
+ * sorted, so that the common blocks with each of them are counted as the length of its run, and no pair is materialized
+ * twice. The buffers for this grow with the blocks of a record, not with the dataset.
+ * As the dataset carries the globalID, the cost of each stage is measured as the share of true matching pairs (equal
+ * globalID) that can still be found, see evaluate().
+ */
+public class MetaBlocker {
+
+    final MetaBlockingParams parameters;
+    final ColumnarDataset dataSet;
+    final String sourceNameA;
+    final String sourceNameB;
+    final int sourceB;
+    final boolean parallel;
+    private final ThreadLocal<Neighbourhood> neighbourhoods;
+
+    public MetaBlocker(MetaBlockingParams parameters, ColumnarDataset dataSet, String sourceNameA, String sourceNameB, boolean parallel) {
+        this.parameters = parameters;
+        this.dataSet = dataSet;
+        this.sourceNameA = sourceNameA;
+        this.sourceNameB = sourceNameB;
+        this.sourceB = dataSet.sourceCode(sourceNameB);
+        this.parallel = parallel;
+        this.neighbourhoods = ThreadLocal.withInitial(Neighbourhood::new);
+    }
+
+    /**
+     * @return the index without the blocks larger than maxBlockSize, or the given index if purging is turned off.
+     */
+    public BlockingIndex purge(BlockingIndex blockingIndex) {
+        if (parameters.maxBlockSize() <= 0) return blockingIndex;
+        return blockingIndex.withoutBlocksLargerThan(parameters.maxBlockSize());
+    }
+
+    /**
+     * Builds the blocking graph of the given index and prunes its edges. The graph is traversed twice, first to compute
+     * the mean edge weight and then to collect the remaining edges, so only the candidate pairs are held in memory.
+     * @return the remaining candidate pairs, packed like Matcher.pair() and sorted, or null if edge pruning is turned
+     * off.
+     */
+    public long[] getCandidatePairs(BlockingIndex blockingIndex) {
+        if (parameters.weightingScheme() == null) return null;
+        System.out.println("Building Blocking Graph...");
+        int[] recordsA = dataSet.getSourcePartition(sourceNameA);
+        long edgeCount = 0;
+        double minWeight = parameters.minEdgeWeight();
+        if (minWeight <= 0) {
+            // the sums of the records are added in record order, so the mean does not depend on the parallelism
+            List<double[]> sums = records(recordsA).mapToObj(a -> {
+                Neighbourhood neighbourhood = getNeighbourhood(blockingIndex, a);
+                double sum = 0;
+                for (int i = 0; i < neighbourhood.size; i++) sum += neighbourhood.weights[i];
+                return new double[]{sum, neighbourhood.size};
+            }).toList();
+            double weightSum = 0;
+            for (double[] sum : sums) {
+                weightSum += sum[0];
+                edgeCount += (long) sum[1];
+            }
+            minWeight = weightSum / Math.max(1, edgeCount);
+        }
+        double threshold = minWeight;
+        long[] candidates = records(recordsA).mapToObj(a -> {
+            Neighbourhood neighbourhood = getNeighbourhood(blockingIndex, a);
+            long[] pairs = new long[neighbourhood.size];
+            int kept = 0;
+            for (int i = 0; i < neighbourhood.size; i++) {
+                if (neighbourhood.weights[i] >= threshold) pairs[kept++] = Matcher.pair(a, neighbourhood.records[i]);
+            }
+            return Arrays.copyOf(pairs, kept);
+        }).flatMapToLong(Arrays::stream).toArray();
+        System.out.printf("Blocking graph: %s edges, pruned at weight %.3f to %d candidate pairs.%n",
+                edgeCount > 0 ? String.valueOf(edgeCount) : "?", threshold, candidates.length);
+        return candidates; // sorted, as records of A are ascending and so are the neighbours of each record
+    }
+
+    private IntStream records(int[] records) {
+        IntStream stream = Arrays.stream(records);
+        return parallel ? stream.parallel() : stream;
+    }
+
+    /**
+     * Collects the records of source B that share a block with the given record of source A, in ascending order, with
+     * the weights of their edges. The buffers are reused per thread and only valid until the next call, and hold as many
+     * records as the blocks of the given record.
+     */
+    private Neighbourhood getNeighbourhood(BlockingIndex blockingIndex, int a) {
+        Neighbourhood neighbourhood = neighbourhoods.get();
+        int[] postings = blockingIndex.getPostings();
+        int size = 0;
+        for (int block : blockingIndex.blocksOf(a)) {
+            for (int i = blockingIndex.start(block); i < blockingIndex.end(block); i++) {
+                int b = postings[i];
+                if (dataSet.getSourceCode(b) != sourceB) continue;
+                if (size == neighbourhood.records.length) neighbourhood.grow();
+                neighbourhood.records[size++] = b;
+            }
+        }
+        int[] records = neighbourhood.records;
+        Arrays.sort(records, 0, size);
+        int blocksOfA = blockingIndex.numberOfBlocksOf(a);
+        int distinct = 0;
+        for (int i = 0; i < size; ) {
+            int b = records[i], end = i + 1;
+            while (end < size && records[end] == b) end++; // b occurs once per common block
+            records[distinct] = b;
+            neighbourhood.weights[distinct++] = parameters.weightingScheme().weight(end - i, blocksOfA, blockingIndex.numberOfBlocksOf(b));
+            i = end;
+        }
+        neighbourhood.size = distinct;
+        return neighbourhood;
+    }
+
+    /**
+     * Per thread buffers of getNeighbourhood().
+     */
+    private static final class Neighbourhood {
+        int[] records = new int[64]; // the records of source B in the blocks of the current record, then its neighbours
+        double[] weights = new double[64];
+        int size;
+
+        void grow() {
+            records = Arrays.copyOf(records, 2 * records.length);
+            weights = Arrays.copyOf(weights, records.length);
+        }
+    }
+
+    /**
+     * Measures how many true matching pairs, i.e. pairs of a record of source A and a record of source B with equal
+     * globalID, share a block before and after purging, and how many are candidate pairs after pruning.
+     * @param candidatePairs sorted candidate pairs, or null if edges were not pruned.
+     */
+    public Report evaluate(BlockingIndex blocked, BlockingIndex purged, long[] candidatePairs) {
+        int globalID = dataSet.attributeIndex("globalID");
+        int[] recordsB = dataSet.getSourcePartition(sourceNameB);
+        // records of source B grouped by globalID code
+        int[] firstB = new int[dataSet.dictionaries[globalID].length];
+        int[] nextB = new int[dataSet.size()];
+        Arrays.fill(firstB, -1);
+        for (int i = recordsB.length - 1; i >= 0; i--) {
+            int b = recordsB[i];
+            nextB[b] = firstB[dataSet.getCode(b, globalID)];
+            firstB[dataSet.getCode(b, globalID)] = b;
+        }
+        long truePairs = 0, blockedPairs = 0, purgedPairs = 0, candidates = 0;
+        for (int a : dataSet.getSourcePartition(sourceNameA)) {
+            for (int b = firstB[dataSet.getCode(a, globalID)]; b >= 0; b = nextB[b]) {
+                truePairs++;
+                if (blocked.firstCommonBlock(a, b) >= 0) blockedPairs++;
+                if (purged.firstCommonBlock(a, b) >= 0) purgedPairs++;
+                if (candidatePairs != null && Arrays.binarySearch(candidatePairs, Matcher.pair(a, b)) >= 0) candidates++;
+            }
+        }
+        return new Report(truePairs, blockedPairs, blocked.numberOfBlocks() - purged.numberOfBlocks(), purgedPairs,
+                candidatePairs == null ? -1 : candidatePairs.length, candidatePairs == null ? purgedPairs : candidates);
+    }
+
+    /**
+     * Number of true matching pairs that survive each stage. candidatePairs is -1 if edges were not pruned.
+     */
+    public record Report(long truePairs, long blockedTruePairs, int purgedBlocks, long purgedTruePairs,
+                         long candidatePairs, long candidateTruePairs) {
+        public double recall() {
+            return truePairs == 0 ? 1.0 : (double) candidateTruePairs / truePairs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Meta-blocking: %d true pairs; blocking keeps %d, purging %d blocks keeps %d, pruning keeps %d (recall %.4f, was %.4f).",
+                    truePairs, blockedTruePairs, purgedBlocks, purgedTruePairs, candidateTruePairs, recall(),
+                    truePairs == 0 ? 1.0 : (double) blockedTruePairs / truePairs);
+        }
+    }
+}
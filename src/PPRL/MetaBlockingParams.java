@@ -0,0 +1,10 @@
+package PPRL;
+
+/**
+ * Parameters of meta-blocking, see MetaBlocker.
+ * @param weightingScheme scheme to weight the edges of the blocking graph, or null to only purge blocks.
+ * @param minEdgeWeight edges with a lower weight are pruned. If not positive, the mean weight of all edges is used.
+ * @param maxBlockSize blocks with more records are purged. If not positive, no blocks are purged.
+ */
+public record MetaBlockingParams(WeightingScheme weightingScheme, double minEdgeWeight, int maxBlockSize) {
+}
@@ -0,0 +1,175 @@
+package PPRL;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Reads a CSV file by memory mapping it, splitting it into chunks at record boundaries and parsing the chunks in
+ * parallel. Each chunk is parsed by opencsv's CSVReader with its default settings, so the records and their order are
+ * the same as when reading the whole file with one CSVReader.
+ * Record boundaries are found by one sequential scan over the raw bytes that tracks the quoting state of the parser, so
+ * line breaks inside quoted fields never split a chunk. The scan is much cheaper than parsing, which is what runs in
+ * parallel. Quote, escape, separator and line breaks are ASCII, so the scan works for any ASCII compatible charset,
+ * such as UTF-8 or ISO-8859-1, and the constructors reject others.
+ */
+public class ParallelCsvReader {
+
+    static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    private static final long SCAN_WINDOW = 1 << 28;
+    private static final int SCAN_BLOCK = 1 << 16;
+
+    private final Path file;
+    private final int chunkSize;
+    private final int chunksInFlight;
+    private final Charset charset;
+
+    public ParallelCsvReader(Path file, Charset charset) {
+        this(file, charset, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param charset charset of the file, which must encode the ASCII characters as ASCII.
+     * @param chunkSize approximate size of the chunks in bytes. Chunks end at the first record boundary after it.
+     */
+    public ParallelCsvReader(Path file, Charset charset, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive.");
+        String syntax = "\",\\\r\n";
+        if (!Arrays.equals(syntax.getBytes(charset), syntax.getBytes(StandardCharsets.US_ASCII))) {
+            throw new IllegalArgumentException("Charset " + charset + " is not ASCII compatible.");
+        }
+        this.file = file;
+        this.charset = charset;
+        this.chunkSize = chunkSize;
+        this.chunksInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Parses all records of the file and returns them in file order.
+     */
+    public List<String[]> readAll() {
+        List<String[]> records = new ArrayList<>();
+        readInBatches(records::addAll);
+        return records;
+    }
+
+    /**
+     * Parses the file chunk by chunk and passes the records of each chunk to the consumer, in file order. Only a
+     * bounded number of chunks is parsed ahead, so memory does not grow with the file size.
+     */
+    public void readInBatches(Consumer<List<String[]>> consumer) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<Long> boundaries = findChunkBoundaries(channel);
+            for (int first = 0; first < boundaries.size() - 1; first += chunksInFlight) {
+                int last = Math.min(first + chunksInFlight, boundaries.size() - 1);
+                List<List<String[]>> parsed = IntStream.range(first, last).parallel()
+                        .mapToObj(chunk -> parseChunk(channel, boundaries.get(chunk), boundaries.get(chunk + 1)))
+                        .toList();
+                parsed.forEach(consumer);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String[]> parseChunk(FileChannel channel, long start, long end) {
+        List<String[]> records = new ArrayList<>();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            CharBuffer chars = charset.decode(buffer);
+            try (CSVReader csvReader = new CSVReader(new CharArrayReader(chars.array(), chars.arrayOffset(), chars.remaining()))) {
+                String[] values;
+                while ((values = csvReader.readNext()) != null) {
+                    records.add(values);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (CsvValidationException e) {
+            throw new RuntimeException(e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Finds the chunk boundaries by replaying the quote handling of opencsv's CSVParser (default quote '"', escape '\'
+     * and separator ',') byte by byte. A chunk ends after the first line feed past the target chunk size at which the
+     * parser would have completed a record, i.e. is neither inside quotes nor continuing a multi-line field.
+     * @return the start offset of each chunk followed by the file size.
+     */
+    List<Long> findChunkBoundaries(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long nextTarget = chunkSize;
+        boolean inQuotes = false, inField = false; // same meaning as in CSVParser.parseLine
+        boolean afterEscape = false; // previous byte was an escape, the current one is taken literally if escapable
+        boolean afterQuote = false; // previous byte was a quote that is an escaped quote if the current one is a quote
+        boolean afterCarriageReturn = false, recordEnded = false;
+        MappedByteBuffer window = null;
+        byte[] block = new byte[SCAN_BLOCK];
+        for (long blockStart = 0; blockStart < size && nextTarget < size; blockStart += SCAN_BLOCK) {
+            if (blockStart % SCAN_WINDOW == 0) {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, blockStart, Math.min(SCAN_WINDOW, size - blockStart));
+            }
+            int length = (int) Math.min(SCAN_BLOCK, size - blockStart);
+            window.get((int) (blockStart % SCAN_WINDOW), block, 0, length);
+            for (int i = 0; i < length; i++) {
+                byte b = block[i];
+                if (afterEscape) {
+                    afterEscape = false;
+                    if (b == '"' || b == '\\') continue;
+                }
+                if (afterQuote) {
+                    afterQuote = false;
+                    inField = !inField;
+                    if (b == '"') continue; // escaped quote ""
+                    inQuotes = !inQuotes;
+                }
+                if (b == '\n' && afterCarriageReturn) {
+                    // second byte of \r\n, the line already ended at \r
+                } else if (b == '\n' || b == '\r') {
+                    recordEnded = !inQuotes;
+                    if (recordEnded) inField = false;
+                } else if (b == '\\') {
+                    inField = true;
+                    afterEscape = true;
+                } else if (b == '"') {
+                    if (inQuotes || inField) {
+                        afterQuote = true;
+                    } else {
+                        inQuotes = true;
+                        inField = true;
+                    }
+                } else if (b == ',' && !inQuotes) {
+                    inField = false;
+                } else {
+                    inField = true;
+                }
+                afterCarriageReturn = b == '\r';
+                long next = blockStart + i + 1;
+                if (b == '\n' && recordEnded && next >= nextTarget && next < size) {
+                    boundaries.add(next);
+                    nextTarget = next + chunkSize;
+                }
+            }
+        }
+        boundaries.add(size);
+        return boundaries;
+    }
+}
@@ -1,7 +1,6 @@
 package PPRL;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Objects;
 
 /**
  * Undirected pair of Person objects. (A, B) equals (B, A)
@@ -10,14 +9,10 @@ public class PersonPair {
 
     private Person A;
     private Person B;
-    private Set<Person> representationAsSet;
 
     public PersonPair(Person a, Person b) {
         A = a;
         B = b;
-        representationAsSet = new HashSet<>();
-        representationAsSet.add(A);
-        representationAsSet.add(B);
     }
 
     public Person getA() {
@@ -31,9 +26,6 @@ public class PersonPair {
     public void set(Person a, Person b) {
         A = a;
         B = b;
-        representationAsSet.clear();
-        representationAsSet.add(A);
-        representationAsSet.add(B);
     }
 
     @Override
@@ -41,15 +33,16 @@ public class PersonPair {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         PersonPair that = (PersonPair) o;
-        return representationAsSet.equals(that.representationAsSet);
+        return (Objects.equals(A, that.A) && Objects.equals(B, that.B))
+                || (Objects.equals(A, that.B) && Objects.equals(B, that.A));
     }
 
     @Override
     public int hashCode() {
-        return representationAsSet.hashCode();
+        return Objects.hashCode(A) + Objects.hashCode(B); // symmetric
     }
 
     public boolean contains(Person p) {
-        return representationAsSet.contains(p);
+        return Objects.equals(A, p) || Objects.equals(B, p);
     }
 }
@@ -0,0 +1,310 @@
+package PPRL;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Candidate generation for threshold linking by prefix filtering, as in the set similarity join PPJoin. Each Bloom
+ * filter is treated as the set of its bit positions, and the positions are ordered by how many filters of the dataset
+ * set them, rarest first. If two filters X and Y have a Jaccard-Similarity of at least t, they share a bit among the
+ * first |X| - ceil(t * |X|) + 1 bits of X, its prefix, and among the prefix of Y.
+ * The records of both sources are ordered by cardinality, and the prefixes are inverted into lists of records per bit,
+ * in that order. Each record probes the lists of the other source with its prefix, from the first record passing the
+ * length filter with it, see FilterSlab.mayReachJaccard(), up to its own position in the order. So each pair is looked
+ * at by its larger record only, and pairs without a common prefix bit or too different in size are never looked at.
+ * The candidates are further required to pass the positional filter, see probe(), and to share a block of the given
+ * blocking index. With blocking turned off, all records share the "DUMMY_VALUE" block, so these filters are the only
+ * ones. The Matcher then scores the candidate pairs like those of the MetaBlocker.
+ * Bloom filters are dense sets, and hashing spreads each bigram over several bits, so the bits are almost equally
+ * frequent: prefixes are long and share bits often, and it is the positional filter that prunes most pairs. That is
+ * why the whole prefix is indexed rather than the shorter indexing prefix of PPJoin. The index pays off for long,
+ * sparse filters and high thresholds, e.g. 16384 bits at t = 0.7 to 0.9 without blocking. For the dense filters of
+ * 1000 or so bits, comparing the pairs is cheaper, see paysOff().
+ */
+public class PrefixFilter {
+
+    static final int VISIT_COST = 32; // words of two filters compared in the time of one visit of a posting, measured
+
+    final FilterSlab filters;
+    final ColumnarDataset dataSet;
+    final double t;
+    final String sourceNameA;
+    final String sourceNameB;
+    final boolean parallel;
+    private int[] sorted; // the records of sources A and B by cardinality, then ID
+    private int[] cardinalities; // the cardinality of the filter of sorted[k]
+    private int[][] prefixes; // prefix of sorted[k] as ranks of its bits, ascending
+    private int[][] rankStarts; // per source: the entries of the bit of rank r are entries[rankStarts[r]] to
+    private int[][] entries;    // entries[rankStarts[r + 1] - 1], positions in sorted of the records with the bit in
+    private int[][] positions;  // their prefix, ascending, and the positions of the bit in those prefixes
+    private int[] ranks; // rank of each bit position, 0 being the rarest
+
+    /**
+     * @throws IllegalArgumentException if t is not positive, as then pairs without common bits match as well.
+     */
+    public PrefixFilter(FilterSlab filters, ColumnarDataset dataSet, double t, String sourceNameA, String sourceNameB,
+                        boolean parallel) {
+        if (!(t > 0)) throw new IllegalArgumentException("Prefix filtering needs a positive threshold, got " + t);
+        this.filters = filters;
+        this.dataSet = dataSet;
+        this.t = t;
+        this.sourceNameA = sourceNameA;
+        this.sourceNameB = sourceNameB;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Estimates whether probing the prefix index costs less than comparing the records of A and B in each block of the
+     * given index. Probing visits each pair of postings of the same bit in the two sources at most once, and a visit
+     * costs about as much as comparing VISIT_COST words of two filters. Bloom filters that are dense, or blocks that
+     * are small, make the nested loop over the blocks cheaper; long, sparse filters and high thresholds favor the
+     * prefix index.
+     */
+    public boolean paysOff(BlockingIndex blockingIndex) {
+        buildIndex();
+        double visits = 0;
+        for (int rank = 0; rank < filters.getHashAreaSize(); rank++) {
+            visits += (double) (rankStarts[0][rank + 1] - rankStarts[0][rank]) * (rankStarts[1][rank + 1] - rankStarts[1][rank]);
+        }
+        int sourceA = dataSet.sourceCode(sourceNameA), sourceB = dataSet.sourceCode(sourceNameB);
+        int[] postings = blockingIndex.getPostings();
+        double pairs = 0;
+        for (int block = 0; block < blockingIndex.numberOfBlocks(); block++) {
+            int sizeA = 0, sizeB = 0;
+            for (int i = blockingIndex.start(block); i < blockingIndex.end(block); i++) {
+                int source = dataSet.getSourceCode(postings[i]);
+                if (source == sourceA) sizeA++;
+                else if (source == sourceB) sizeB++;
+            }
+            pairs += (double) sizeA * sizeB;
+        }
+        boolean paysOff = VISIT_COST * visits < pairs * filters.wordsPerFilter;
+        System.out.printf("Prefix index: at most %.0f postings to visit instead of %.0f pairs to compare, %s.%n",
+                visits, pairs, paysOff ? "probing it" : "comparing the blocks instead");
+        return paysOff;
+    }
+
+    /**
+     * Builds the prefix index of the records of sources A and B, if not done by paysOff(), and probes it with each of
+     * them.
+     * @return the candidate pairs that share a prefix bit and a block of the given index, packed like Matcher.pair()
+     * and sorted.
+     */
+    public long[] getCandidatePairs(BlockingIndex blockingIndex) {
+        buildIndex();
+        boolean singleBlock = blockingIndex.numberOfBlocks() == 1 && blockingIndex.blockSize(0) == dataSet.size();
+        ThreadLocal<Probe> probes = ThreadLocal.withInitial(() -> new Probe(sorted.length, filters.getHashAreaSize()));
+        long[] candidates = stream(IntStream.range(0, sorted.length))
+                .mapToObj(k -> probe(k, probes.get(), blockingIndex, singleBlock))
+                .flatMapToLong(Arrays::stream).toArray();
+        if (parallel) Arrays.parallelSort(candidates);
+        else Arrays.sort(candidates);
+        System.out.printf("Prefix index: %d postings of %d records, %d candidate pairs at t = %.3f.%n",
+                entries[0].length + entries[1].length, sorted.length, candidates.length, t);
+        return candidates;
+    }
+
+    /**
+     * Ranks the bit positions by the number of filters setting them, orders the records and indexes their prefixes,
+     * unless done before.
+     */
+    private void buildIndex() {
+        if (sorted != null) return;
+        System.out.println("Building Prefix Index...");
+        int hashAreaSize = filters.getHashAreaSize();
+        int[] recordsA = dataSet.getSourcePartition(sourceNameA), recordsB = dataSet.getSourcePartition(sourceNameB);
+        long[] frequencies = stream(IntStream.range(0, filters.size()))
+                .collect(() -> new long[hashAreaSize], (counts, record) -> {
+                    int offset = filters.offset(record);
+                    for (int word = 0; word < filters.wordsPerFilter; word++) {
+                        for (long bits = filters.words[offset + word]; bits != 0; bits &= bits - 1) {
+                            counts[64 * word + Long.numberOfTrailingZeros(bits)]++;
+                        }
+                    }
+                }, (counts, other) -> {
+                    for (int i = 0; i < counts.length; i++) counts[i] += other[i];
+                });
+        long[] keys = new long[hashAreaSize]; // frequency in the high half, so that sorting orders by it first
+        for (int position = 0; position < hashAreaSize; position++) keys[position] = frequencies[position] << 32 | position;
+        Arrays.sort(keys);
+        this.ranks = new int[hashAreaSize];
+        for (int rank = 0; rank < hashAreaSize; rank++) ranks[(int) keys[rank]] = rank;
+
+        long[] records = new long[recordsA.length + recordsB.length]; // cardinality in the high half, as above
+        for (int i = 0; i < recordsA.length; i++) records[i] = (long) filters.getCardinality(recordsA[i]) << 32 | recordsA[i];
+        for (int i = 0; i < recordsB.length; i++) {
+            records[recordsA.length + i] = (long) filters.getCardinality(recordsB[i]) << 32 | recordsB[i];
+        }
+        Arrays.sort(records);
+        this.sorted = new int[records.length];
+        this.cardinalities = new int[records.length];
+        for (int k = 0; k < records.length; k++) {
+            sorted[k] = (int) records[k];
+            cardinalities[k] = (int) (records[k] >>> 32);
+        }
+        this.prefixes = new int[sorted.length][];
+        stream(IntStream.range(0, sorted.length)).forEach(k -> prefixes[k] = getPrefix(sorted[k]));
+
+        int sourceA = dataSet.sourceCode(sourceNameA);
+        this.rankStarts = new int[2][hashAreaSize + 1];
+        for (int k = 0; k < sorted.length; k++) {
+            int[] counts = rankStarts[dataSet.getSourceCode(sorted[k]) == sourceA ? 0 : 1];
+            for (int position = 0; position < prefixes[k].length; position++) counts[prefixes[k][position] + 1]++;
+        }
+        this.entries = new int[2][];
+        this.positions = new int[2][];
+        int[][] fill = new int[2][];
+        for (int source = 0; source < 2; source++) {
+            int[] starts = rankStarts[source];
+            for (int rank = 0; rank < hashAreaSize; rank++) starts[rank + 1] += starts[rank];
+            entries[source] = new int[starts[hashAreaSize]];
+            positions[source] = new int[starts[hashAreaSize]];
+            fill[source] = starts.clone();
+        }
+        for (int k = 0; k < sorted.length; k++) {
+            int source = dataSet.getSourceCode(sorted[k]) == sourceA ? 0 : 1;
+            for (int position = 0; position < prefixes[k].length; position++) {
+                int entry = fill[source][prefixes[k][position]]++;
+                entries[source][entry] = k;
+                positions[source][entry] = position;
+            }
+        }
+    }
+
+    /**
+     * @return the ranks of the prefix of the filter of the given record, ascending.
+     */
+    int[] getPrefix(int record) {
+        int cardinality = filters.getCardinality(record);
+        int length = prefixLength(cardinality, t);
+        long[] rankedBits = new long[filters.wordsPerFilter]; // the filter with each bit moved to its rank
+        int offset = filters.offset(record);
+        for (int word = 0; word < filters.wordsPerFilter; word++) {
+            for (long bits = filters.words[offset + word]; bits != 0; bits &= bits - 1) {
+                int rank = ranks[64 * word + Long.numberOfTrailingZeros(bits)];
+                rankedBits[rank >>> 6] |= 1L << rank;
+            }
+        }
+        int[] prefix = new int[length];
+        int size = 0;
+        for (int word = 0; size < length; word++) {
+            for (long bits = rankedBits[word]; bits != 0 && size < length; bits &= bits - 1) {
+                prefix[size++] = 64 * word + Long.numberOfTrailingZeros(bits);
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * @return the number of first bits of a filter of the given cardinality that contain its first common bit with any
+     * filter it shares at least ceil(share * cardinality) bits with. The overlap is lowered by one, so that rounding in
+     * the similarity cannot let a match slip through.
+     */
+    private static int prefixLength(int cardinality, double share) {
+        int overlap = (int) Math.max(0, Math.ceil(share * cardinality) - 1);
+        return Math.min(cardinality, cardinality - overlap + 1);
+    }
+
+    /**
+     * Probes the lists of the other source with the prefix of sorted[k], counting the prefix bits it shares with
+     * each record before it in probe.overlaps. A record is dropped when it fails the length filter, shares no block
+     * with sorted[k], or by the positional filter of PPJoin: when the i-th bit of X is the j-th bit of Y, their overlap
+     * is at most the bits shared before plus 1 + min(|X| - i - 1, |Y| - j - 1), which must reach
+     * FilterSlab.minIntersection().
+     * @return the remaining pairs.
+     */
+    private long[] probe(int k, Probe probe, BlockingIndex blockingIndex, boolean singleBlock) {
+        int x = sorted[k];
+        int cardinality = cardinalities[k];
+        int lowest = getFirstReaching(k); // the lists are sorted as well, so each is entered at the first record of these
+        boolean isA = dataSet.getSourceCode(x) == dataSet.sourceCode(sourceNameA);
+        int source = isA ? 1 : 0;
+        int[] starts = rankStarts[source], entries = this.entries[source], positions = this.positions[source];
+        int[] overlaps = probe.overlaps, minOverlaps = probe.minOverlaps;
+        double ratio = t / (1 + t);
+        for (int other = cardinalities[lowest]; other <= cardinality; other++) { // records before k are not larger
+            minOverlaps[other] = FilterSlab.mayReachJaccard(cardinality, other, t)
+                    ? FilterSlab.minIntersection(cardinality, other, ratio) : Integer.MAX_VALUE;
+        }
+        int[] prefix = prefixes[k];
+        int touched = 0;
+        for (int i = 0; i < prefix.length; i++) {
+            int end = starts[prefix[i] + 1];
+            for (int entry = lowerBound(entries, starts[prefix[i]], end, lowest); entry < end; entry++) {
+                int other = entries[entry];
+                if (other >= k) break;
+                int overlap = overlaps[other];
+                if (overlap < 0) continue;
+                int cardinalityY = cardinalities[other];
+                if (overlap == 0) {
+                    if (touched == probe.touched.length) probe.grow();
+                    probe.touched[touched++] = other;
+                    if (!singleBlock && blockingIndex.firstCommonBlock(x, sorted[other]) < 0) {
+                        overlaps[other] = -1;
+                        continue;
+                    }
+                }
+                int remaining = Math.min(cardinality - i - 1, cardinalityY - positions[entry] - 1);
+                overlaps[other] = overlap + 1 + remaining >= minOverlaps[cardinalityY] ? overlap + 1 : -1;
+            }
+        }
+        long[] pairs = new long[touched];
+        int size = 0;
+        for (int i = 0; i < touched; i++) {
+            int other = probe.touched[i];
+            if (overlaps[other] > 0) pairs[size++] = isA ? Matcher.pair(x, sorted[other]) : Matcher.pair(sorted[other], x);
+            overlaps[other] = 0;
+        }
+        return Arrays.copyOf(pairs, size);
+    }
+
+    /**
+     * Length filter: finds the first of the records before sorted[k] whose filter may reach a Jaccard-Similarity of t
+     * with that of sorted[k], see FilterSlab.mayReachJaccard(). As the records are sorted by cardinality, all records
+     * from there to k pass it.
+     */
+    private int getFirstReaching(int k) {
+        int low = 0, high = k;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (FilterSlab.mayReachJaccard(cardinalities[k], cardinalities[mid], t)) high = mid;
+            else low = mid + 1;
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of the first of values[from] to values[to - 1], which are ascending, that is at least the
+     * given value, or to if there is none.
+     */
+    private static int lowerBound(int[] values, int from, int to, int value) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (values[mid] >= value) to = mid;
+            else from = mid + 1;
+        }
+        return from;
+    }
+
+    private IntStream stream(IntStream stream) {
+        return parallel ? stream.parallel() : stream;
+    }
+
+    /**
+     * Per thread buffers of probe().
+     */
+    private static final class Probe {
+        final int[] overlaps; // prefix bits shared with the probing record, by position in sorted, or -1 if dropped
+        final int[] minOverlaps; // overlap needed with a record of each cardinality, or MAX_VALUE if out of length
+        int[] touched = new int[64]; // positions in sorted with a non-zero overlap
+
+        Probe(int records, int hashAreaSize) {
+            this.overlaps = new int[records];
+            this.minOverlaps = new int[hashAreaSize + 1];
+        }
+
+        void grow() {
+            touched = Arrays.copyOf(touched, 2 * touched.length);
+        }
+    }
+}
@@ -1,40 +1,90 @@
 package PPRL;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Threadsafe helper class for showing progress in terminal
+ * Threadsafe helper class for showing progress in terminal.
+ * Progress is counted in a LongAdder, so updating it from many threads does not contend on a single counter. The
+ * counter is not read by the updating threads: after reset(), a reporter thread shared by all handlers samples it
+ * every REPORT_INTERVAL_MS and prints the percentage whenever it advanced by stepPercent. Inner loops should still
+ * count their units locally and pass them in one call, see updateProgress(long).
+ * Reporting must be stopped by finish(), abort() or close(); callers close the handler in a finally block, so the
+ * reporter task is cancelled even if the work fails.
  */
-public class ProgressHandler {
+public class ProgressHandler implements AutoCloseable {
 
-    AtomicLong progressAbsolute;
-    long totalSize;
+    static final long REPORT_INTERVAL_MS = 200;
+    private static final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ProgressHandler-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile boolean quiet = false;
+
+    final LongAdder progressAbsolute;
+    volatile long totalSize;
     int stepPercent;
-    int progressPercent;
+    int progressPercent; // only accessed while holding the lock of this handler
     int lastMsgSize = 0;
+    private ScheduledFuture<?> report;
 
     public ProgressHandler(long totalSize, int stepPercent) {
-        this.progressAbsolute = new AtomicLong();
+        this.progressAbsolute = new LongAdder();
         this.totalSize = totalSize;
         this.stepPercent = stepPercent;
         this.progressPercent = 0;
     }
 
+    /**
+     * Turns the output of all progress handlers on or off, e.g. when using this program as a library. In quiet mode
+     * no reporter thread is scheduled.
+     */
+    public static void setQuiet(boolean quiet) {
+        ProgressHandler.quiet = quiet;
+    }
+
+    public static boolean isQuiet() {
+        return quiet;
+    }
+
     public void updateProgress() {
-        updateProgress(1);
+        progressAbsolute.increment();
     }
 
     public void updateProgress(int units) {
-        for (int i = 0; i < units; i++) {
-            progressAbsolute.incrementAndGet();
-        }
-        if ((100.0 * progressAbsolute.get() / totalSize) - progressPercent >= stepPercent) {
-            progressPercent += stepPercent;
+        progressAbsolute.add(units);
+    }
+
+    public void updateProgress(long units) {
+        progressAbsolute.add(units);
+    }
+
+    /**
+     * @return the units of progress counted since the last reset.
+     */
+    public long getProgress() {
+        return progressAbsolute.sum();
+    }
+
+    /**
+     * Prints the percentage if it advanced by stepPercent since the last print. Called by the reporter thread.
+     */
+    synchronized void report() {
+        long total = totalSize;
+        if (report == null || total <= 0) return; // finished while waiting for the lock
+        int percent = (int) Math.min(100, 100.0 * progressAbsolute.sum() / total);
+        if (percent - progressPercent >= stepPercent) {
+            progressPercent = percent - percent % stepPercent;
             printProgress();
         }
     }
 
-    public void printProgress() {
+    public synchronized void printProgress() {
+        if (quiet) return;
         deleteLastMsg();
         String msg = progressPercent + "%";
         lastMsgSize = msg.length();
@@ -45,21 +95,53 @@ public class ProgressHandler {
         for (int i = 0; i < lastMsgSize; i++) {
             System.out.print("\b");
         }
+        lastMsgSize = 0;
     }
 
-    public void finish() {
+    public synchronized void finish() {
+        stopReporting();
+        if (quiet) return;
         deleteLastMsg();
         System.out.println("Done.");
     }
 
-    public void abort() {
+    public synchronized void abort() {
+        stopReporting();
+        if (quiet) return;
         deleteLastMsg();
         System.out.println("Aborted");
     }
 
-    public void reset() {
-        this.progressAbsolute = new AtomicLong();
-        this.progressPercent = 0;
+    /**
+     * Sets the progress back to zero and starts reporting it, until finish(), abort() or close() is called.
+     */
+    public synchronized void reset() {
+        stopReporting();
+        progressAbsolute.reset();
+        progressPercent = 0;
+        if (!quiet) {
+            report = reporter.scheduleAtFixedRate(this::report, REPORT_INTERVAL_MS, REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops reporting without printing anything. Does nothing if reporting was already stopped.
+     */
+    @Override
+    public synchronized void close() {
+        stopReporting();
+    }
+
+    /**
+     * @return whether a reporter task is scheduled for this handler.
+     */
+    synchronized boolean isReporting() {
+        return report != null;
+    }
+
+    private void stopReporting() {
+        if (report != null) report.cancel(false);
+        report = null;
     }
 
     public void setTotalSize(long totalSize) {
@@ -0,0 +1,210 @@
+package PPRL;
+
+import com.opencsv.CSVWriter;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+
+/**
+ * Deterministic generator of two-source datasets in the schema of Launcher.setPersonAttributeWeights(). Record i is
+ * generated from its own random stream seeded by the seed and i, so any record can be generated on its own and in any
+ * order. Hence, datasets of any size can be written to file without holding them in memory, and record i of B that is
+ * a copy of record i of A just generates that record again and corrupts it.
+ * Names, cities and streets are drawn from vocabularies of pronounceable made-up words with Zipf-distributed
+ * frequencies, see SyntheticDataParams.
+ */
+public class SyntheticDataGenerator {
+
+    private static final String[] CONSONANTS = {"B", "C", "D", "F", "G", "H", "J", "K", "L", "M", "N", "P", "R", "S", "T", "V", "W", "Z", "CH", "SH", "TH"};
+    private static final String[] VOWELS = {"A", "E", "I", "O", "U", "AI", "EA", "OU", "Y"};
+    private static final String[] STATES = {"NC", "SC", "VA", "GA", "TN", "NY", "FL", "CA", "OH", "PA", ""};
+    private static final String[] ETHNICS = {"NL", "HL", "UN"};
+    private static final String[] RACES = {"W", "B", "A", "I", "O", "M", "U"};
+    private static final String[] GENDERS = {"F", "M", "U"};
+
+    final SyntheticDataParams parameters;
+    final int sizeA;
+    private final Vocabulary firstNames, lastNames, counties, cities, streets;
+
+    public SyntheticDataGenerator(SyntheticDataParams parameters) {
+        this.parameters = parameters;
+        this.sizeA = parameters.size() / 2;
+        SplittableRandom random = new SplittableRandom(parameters.seed());
+        int scale = Math.max(1, parameters.size());
+        this.firstNames = new Vocabulary(random, Math.min(20_000, 100 + scale / 50), 1, 3, parameters.nameSkew());
+        this.lastNames = new Vocabulary(random, Math.min(200_000, 200 + scale / 10), 2, 3, parameters.nameSkew());
+        this.counties = new Vocabulary(random, 100, 2, 3, parameters.nameSkew());
+        this.cities = new Vocabulary(random, Math.min(5_000, 50 + scale / 200), 1, 3, parameters.nameSkew());
+        this.streets = new Vocabulary(random, Math.min(50_000, 100 + scale / 20), 2, 3, parameters.nameSkew());
+    }
+
+    public int size() {
+        return parameters.size();
+    }
+
+    /**
+     * @return the attribute values of the given record, in the order of Person.attributeNames.
+     */
+    public String[] getRecord(int record) {
+        if (record < sizeA) return person(record);
+        int b = record - sizeA;
+        SplittableRandom random = randomOf(record);
+        if (b < sizeA && random.nextDouble() < parameters.duplicateRate()) {
+            String[] values = corrupt(person(b), random);
+            values[0] = "B";
+            values[2] = localID(record);
+            return values;
+        }
+        String[] values = person(record);
+        values[0] = "B";
+        return values;
+    }
+
+    /**
+     * Passes the records to the consumer in order. The arrays are not reused.
+     */
+    public void forEach(Consumer<String[]> consumer) {
+        for (int record = 0; record < size(); record++) {
+            consumer.accept(getRecord(record));
+        }
+    }
+
+    /**
+     * Generates all records into a ColumnarDataset, setting the schema of Person.
+     */
+    public ColumnarDataset toDataset() {
+        Launcher.setPersonAttributeWeights();
+        ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+        forEach(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Writes all records to the given UTF-8 encoded CSV file, in the format of datasets/test_data.csv.
+     */
+    public void writeCsv(String filePath) throws IOException {
+        File file = new File(filePath);
+        if (file.getParentFile() != null) Files.createDirectories(file.getParentFile().toPath());
+        try (CSVWriter writer = new CSVWriter(new FileWriter(file, StandardCharsets.UTF_8),
+                CSVWriter.DEFAULT_SEPARATOR,
+                CSVWriter.NO_QUOTE_CHARACTER,
+                CSVWriter.DEFAULT_ESCAPE_CHARACTER,
+                CSVWriter.DEFAULT_LINE_END)) {
+            forEach(writer::writeNext);
+        }
+    }
+
+    /**
+     * The uncorrupted person with the given globalID number. Records of A are persons 0 to sizeA - 1, records of B that
+     * are no copies are the persons sizeA to size - 1.
+     */
+    private String[] person(int id) {
+        SplittableRandom random = randomOf(~id);
+        String county = counties.draw(random);
+        return new String[]{
+                "A",
+                "G" + id,
+                localID(id),
+                firstNames.draw(random),
+                random.nextInt(4) == 0 ? "" : firstNames.draw(random),
+                lastNames.draw(random),
+                String.valueOf(1920 + random.nextInt(86)),
+                STATES[random.nextInt(STATES.length)],
+                county,
+                cities.draw(random),
+                String.valueOf(27000 + random.nextInt(2000)),
+                streets.draw(random),
+                GENDERS[random.nextInt(GENDERS.length)],
+                ETHNICS[random.nextInt(ETHNICS.length)],
+                RACES[random.nextInt(RACES.length)]
+        };
+    }
+
+    /**
+     * A random looking localID that is unique, as mix() is a bijection.
+     */
+    private String localID(int record) {
+        return "L" + Long.toUnsignedString(mix(parameters.seed() ^ mix(record)), 36).toUpperCase();
+    }
+
+    private String[] corrupt(String[] values, SplittableRandom random) {
+        for (int attribute : new int[]{3, 4, 5, 9, 11}) { // names, city and street
+            if (random.nextDouble() < parameters.typoRate()) values[attribute] = typo(values[attribute], random);
+        }
+        if (random.nextDouble() < parameters.yearErrorRate()) {
+            values[6] = String.valueOf(Integer.parseInt(values[6]) + (random.nextBoolean() ? 1 : -1));
+        }
+        for (int attribute = 3; attribute < values.length; attribute++) {
+            if (random.nextDouble() < parameters.missingRate()) values[attribute] = "";
+        }
+        return values;
+    }
+
+    private static String typo(String value, SplittableRandom random) {
+        StringBuilder s = new StringBuilder(value);
+        char letter = (char) ('A' + random.nextInt(26));
+        int position = random.nextInt(s.length() + 1);
+        switch (s.length() < 2 ? 1 : random.nextInt(4)) {
+            case 0 -> s.setCharAt(Math.min(position, s.length() - 1), letter);
+            case 1 -> s.insert(position, letter);
+            case 2 -> s.deleteCharAt(Math.min(position, s.length() - 1));
+            default -> {
+                int i = Math.min(position, s.length() - 2);
+                char c = s.charAt(i);
+                s.setCharAt(i, s.charAt(i + 1));
+                s.setCharAt(i + 1, c);
+            }
+        }
+        return s.toString();
+    }
+
+    private SplittableRandom randomOf(int stream) {
+        return new SplittableRandom(mix(parameters.seed() + mix(stream)));
+    }
+
+    /**
+     * The finalizer of SplitMix64, so that the random streams of neighbouring records are unrelated.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Made-up words of some syllables, drawn with probability proportional to 1 / rank^skew.
+     */
+    private static final class Vocabulary {
+        final String[] words;
+        final double[] cumulativeWeights;
+
+        Vocabulary(SplittableRandom random, int size, int minSyllables, int maxSyllables, double skew) {
+            this.words = new String[size];
+            this.cumulativeWeights = new double[size];
+            double sum = 0;
+            for (int rank = 0; rank < size; rank++) {
+                StringBuilder word = new StringBuilder();
+                int syllables = minSyllables + random.nextInt(maxSyllables - minSyllables + 1);
+                for (int i = 0; i < syllables; i++) {
+                    word.append(CONSONANTS[random.nextInt(CONSONANTS.length)]).append(VOWELS[random.nextInt(VOWELS.length)]);
+                }
+                if (random.nextBoolean()) word.append(CONSONANTS[random.nextInt(CONSONANTS.length)]);
+                words[rank] = word.toString();
+                sum += Math.pow(rank + 1, -skew);
+                cumulativeWeights[rank] = sum;
+            }
+        }
+
+        String draw(SplittableRandom random) {
+            double x = random.nextDouble() * cumulativeWeights[words.length - 1];
+            int rank = Arrays.binarySearch(cumulativeWeights, x);
+            return words[rank >= 0 ? rank : Math.min(words.length - 1, -rank - 1)];
+        }
+    }
+}
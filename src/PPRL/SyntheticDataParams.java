@@ -0,0 +1,31 @@
+package PPRL;
+
+/**
+ * Parameters of SyntheticDataGenerator.
+ * @param size total number of records; the first half is source A, the rest source B.
+ * @param duplicateRate share of the records of B that are corrupted copies of a record of A, with the same globalID.
+ * @param typoRate probability of one edit (substitution, insertion, deletion or transposition) per name, city and
+ *                 street of a copy.
+ * @param missingRate probability of each non-ID attribute of a copy to be blank.
+ * @param yearErrorRate probability of the yearOfBirth of a copy to be off by one.
+ * @param nameSkew exponent of the Zipf distribution of names, cities and streets; 0 for uniform, around 1 for
+ *                 real-world name frequencies.
+ * @param seed the same parameters and seed give the same records.
+ */
+public record SyntheticDataParams(int size, double duplicateRate, double typoRate, double missingRate,
+                                  double yearErrorRate, double nameSkew, long seed) {
+
+    public SyntheticDataParams {
+        if (size < 0) throw new IllegalArgumentException("Size must not be negative.");
+        for (double rate : new double[]{duplicateRate, typoRate, missingRate, yearErrorRate}) {
+            if (rate < 0 || rate > 1) throw new IllegalArgumentException("Rates must be between 0 and 1.");
+        }
+    }
+
+    /**
+     * Half of the records of B are copies, with moderate corruption and name skew.
+     */
+    public static SyntheticDataParams withDefaults(int size, long seed) {
+        return new SyntheticDataParams(size, 0.5, 0.2, 0.05, 0.05, 1.0, seed);
+    }
+}
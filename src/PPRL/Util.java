@@ -1,12 +1,7 @@
 package PPRL;
 
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvValidationException;
-
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
@@ -29,17 +24,40 @@ public class Util {
         stream.forEach(consumer);
     }
 
+    /**
+     * Reads all records of the given UTF-8 encoded CSV file. The file is parsed in parallel chunks, see
+     * ParallelCsvReader.
+     */
     public static Person[] getDatasetFromFile(String filePath) {
-        List<Person> records = new ArrayList<>();
-        try (CSVReader csvReader = new CSVReader(new FileReader(filePath))) {
-            String[] values;
-            while ((values = csvReader.readNext()) != null) {
-                records.add(new Person(values));
+        return new ParallelCsvReader(Paths.get(filePath), StandardCharsets.UTF_8).readAll().stream()
+                .map(Person::new)
+                .toArray(Person[]::new);
+    }
+
+    /**
+     * Reads the dataset in batches of the given size and passes each batch to the consumer, so that only a few batches
+     * of plaintext records are on the heap at a time. The file is parsed in parallel chunks, see ParallelCsvReader.
+     * Record IDs of each batch start at 0.
+     * @return the total number of records read.
+     */
+    public static int readDatasetInBatches(String filePath, int batchSize, Consumer<ColumnarDataset> consumer) {
+        ColumnarDataset.Builder[] batch = {new ColumnarDataset.Builder()};
+        int[] total = {0};
+        new ParallelCsvReader(Paths.get(filePath), StandardCharsets.UTF_8).readInBatches(records -> {
+            for (String[] values : records) {
+                batch[0].add(values);
+                if (batch[0].size() == batchSize) {
+                    consumer.accept(batch[0].build());
+                    total[0] += batchSize;
+                    batch[0] = new ColumnarDataset.Builder();
+                }
             }
-        } catch (IOException | CsvValidationException e) {
-            throw new RuntimeException(e.getMessage());
+        });
+        if (batch[0].size() > 0) {
+            consumer.accept(batch[0].build());
+            total[0] += batch[0].size();
         }
-        return records.toArray(Person[]::new);
+        return total[0];
     }
 
 }
@@ -0,0 +1,30 @@
+package PPRL;
+
+/**
+ * Edge weighting schemes of the blocking graph, see MetaBlocker.
+ */
+public enum WeightingScheme {
+    COMMON_BLOCKS,
+    JACCARD;
+
+    /**
+     * @param commonBlocks number of blocks both records share.
+     * @param blocksA number of blocks of the first record.
+     * @param blocksB number of blocks of the second record.
+     * @return the weight of the edge between the two records.
+     */
+    public double weight(int commonBlocks, int blocksA, int blocksB) {
+        return switch (this) {
+            case COMMON_BLOCKS -> commonBlocks;
+            case JACCARD -> (double) commonBlocks / (blocksA + blocksB - commonBlocks);
+        };
+    }
+
+    public static WeightingScheme parseFromString(String s) {
+        return switch (s.toUpperCase()) {
+            case "CBS" -> WeightingScheme.COMMON_BLOCKS;
+            case "JS", "JACCARD" -> WeightingScheme.JACCARD;
+            default -> throw new IllegalArgumentException("Unexpected Value for Weighting Scheme '" + s + "'");
+        };
+    }
+}
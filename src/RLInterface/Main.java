@@ -1,5 +1,6 @@
 package RLInterface;
 
+import PPRL.ProgressHandler;
 import org.apache.commons.cli.*;
 
 import java.nio.file.Paths;
@@ -15,6 +16,7 @@ public class Main {
      * -c / -config: path to config file
      * Optional:
      * -s / -storage: path to storage file where person-bloom-filter map is stored. If not specified, the default relative path will be used.
+     * -q / -quiet: do not print progress percentages.
      */
     public static void main(String[] args) {
         tryGetCommandLineArgumentValues(args);
@@ -37,6 +39,7 @@ public class Main {
             outFile = cmd.getOptionValue("o");
             configFile = cmd.getOptionValue("c");
             personBloomFilterMapPath = cmd.getOptionValue("s", Paths.get("storage", "pbm").toString());
+            ProgressHandler.setQuiet(cmd.hasOption("q"));
         } catch (ParseException e) {
             System.err.print("Parse error: ");
             System.err.println(e.getMessage());
@@ -51,6 +54,7 @@ public class Main {
         options.addRequiredOption("c", "config", true, "Filepath to config json file.");
         options.addOption("s", "storage", true, "Filepath to storage file for storing person->bloom-filter map. " +
                 "Will try to use default path if not specified.");
+        options.addOption("q", "quiet", false, "Do not print progress percentages.");
         CommandLineParser parser = new DefaultParser();
         System.out.println("Working Directory = " + System.getProperty("user.dir"));
         return parser.parse(options, args);
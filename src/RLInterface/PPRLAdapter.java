@@ -12,9 +12,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Set;
-
-import static PPRL.Util.getDatasetFromFile;
 
 public class PPRLAdapter implements RecordLinkageI {
     
@@ -25,7 +22,7 @@ public class PPRLAdapter implements RecordLinkageI {
         boolean blockingCheat = true;
         boolean parallelBlockingMapCreation = false;
         boolean parallelLinking = false;
-        this.launcher = new Launcher(blockingCheat, parallelBlockingMapCreation, parallelLinking, true);
+        this.launcher = new Launcher(blockingCheat, parallelBlockingMapCreation, parallelLinking, false);
         this.logs = new StringBuilder();
     }
 
@@ -38,11 +35,14 @@ public class PPRLAdapter implements RecordLinkageI {
      */
     public void readData(String fromFile, String configFile, String personBloomFilterMapPath) {
         try {
-            Person[] dataSet = getDatasetFromFile(fromFile);
-            logs.append(String.format("Dataset size: %d\n", dataSet.length));
             EncoderParams encoderParams = getEncoderParams(configFile);
             MatcherParams matcherParams = getMatcherParams(configFile);
-            launcher.prepare(dataSet, encoderParams, matcherParams, personBloomFilterMapPath);
+            if (isStreaming(configFile)) {
+                launcher.prepareStreaming(fromFile, encoderParams, matcherParams, personBloomFilterMapPath);
+            } else {
+                launcher.prepare(ColumnarDataset.fromFile(fromFile), encoderParams, matcherParams, personBloomFilterMapPath);
+            }
+            logs.append(String.format("Dataset size: %d\n", launcher.getDataSetSize()));
         } catch (IOException | ParseException e) {
             throw new RuntimeException(e);
         }
@@ -53,7 +53,7 @@ public class PPRLAdapter implements RecordLinkageI {
      */
     @Override
     public void getLinking(String outFile) {
-        Set<PersonPair> linking = launcher.getLinking();
+        Linking linking = launcher.getLinking();
         logs.append(String.format("Matches: %d\n", linking.size()));
         try {
             storeLinkingToFile(linking, outFile);
@@ -62,24 +62,63 @@ public class PPRLAdapter implements RecordLinkageI {
         }
     }
 
+    /**
+     * Optional config keys "blocking" (default: true), "prefixFilter" (default: false), see PrefixFilter, and
+     * "comparisonStrategy" ("ROW" or "SLICED", default: "ROW"), see ComparisonStrategy.
+     */
     private MatcherParams getMatcherParams(String configFile) throws IOException, ParseException {
         try (FileReader reader = new FileReader(configFile)) {
             JSONObject jsonObject = (JSONObject) (new JSONParser().parse(reader));
             double t = (double) jsonObject.get("t");
+            boolean blocking = !jsonObject.containsKey("blocking") || (boolean) jsonObject.get("blocking");
+            boolean prefixFilter = jsonObject.containsKey("prefixFilter") && (boolean) jsonObject.get("prefixFilter");
+            ComparisonStrategy comparisonStrategy = jsonObject.containsKey("comparisonStrategy")
+                    ? ComparisonStrategy.parseFromString((String) jsonObject.get("comparisonStrategy"))
+                    : ComparisonStrategy.ROW_WISE;
             return new MatcherParams(
                     LinkingMode.POLYGAMOUS,
-                    true, t);
+                    blocking, t, getLshParams(jsonObject), getMetaBlockingParams(jsonObject), prefixFilter,
+                    comparisonStrategy);
         }
     }
 
+    /**
+     * Optional config keys "lshBands" and "lshRows": if set, records are blocked by LSH of their Bloom filters instead of
+     * their plaintext attributes. "lshSeed" selects the sampled bits, default 0.
+     */
+    private LshParams getLshParams(JSONObject jsonObject) {
+        if (!jsonObject.containsKey("lshBands")) return null;
+        int bands = (int) (long) jsonObject.get("lshBands");
+        int rows = (int) (long) jsonObject.get("lshRows");
+        long seed = jsonObject.containsKey("lshSeed") ? (long) jsonObject.get("lshSeed") : 0L;
+        return new LshParams(bands, rows, seed);
+    }
+
+    /**
+     * Optional config keys "metaBlocking" (edge weighting scheme "CBS" or "JS"), "minEdgeWeight" (default: mean edge
+     * weight) and "maxBlockSize" (default: no purging). If none is set, all records of each block are compared.
+     */
+    private MetaBlockingParams getMetaBlockingParams(JSONObject jsonObject) {
+        if (!jsonObject.containsKey("metaBlocking") && !jsonObject.containsKey("maxBlockSize")) return null;
+        WeightingScheme weightingScheme = jsonObject.containsKey("metaBlocking")
+                ? WeightingScheme.parseFromString((String) jsonObject.get("metaBlocking"))
+                : null;
+        double minEdgeWeight = jsonObject.containsKey("minEdgeWeight") ? ((Number) jsonObject.get("minEdgeWeight")).doubleValue() : 0.0;
+        int maxBlockSize = jsonObject.containsKey("maxBlockSize") ? (int) (long) jsonObject.get("maxBlockSize") : 0;
+        return new MetaBlockingParams(weightingScheme, minEdgeWeight, maxBlockSize);
+    }
+
     private EncoderParams getEncoderParams(String configFile) throws IOException, ParseException {
         try (FileReader reader = new FileReader(configFile)) {
             JSONObject jsonObject = (JSONObject) (new JSONParser().parse(reader));
             int l = (int) (long) jsonObject.get("l");
             int k = (int) (long) jsonObject.get("k");
             String tokenSalting = (String) jsonObject.get("seed");
+            HashingMode hashingMode = jsonObject.containsKey("hashingMode")
+                    ? HashingMode.parseFromString((String) jsonObject.get("hashingMode"))
+                    : HashingMode.ENHANCED_DOUBLE_HASHING;
             return new EncoderParams(
-                    HashingMode.ENHANCED_DOUBLE_HASHING,
+                    hashingMode,
                     "SHA-1",
                     "MD5",
                     true,
@@ -88,7 +127,18 @@ public class PPRLAdapter implements RecordLinkageI {
         }
     }
 
-    private void storeLinkingToFile(Set<PersonPair> linking, String outFilePath) throws IOException {
+    /**
+     * Optional config key "streaming": if true, the dataset is encoded and blocked while reading it, and the plaintext
+     * records are not kept.
+     */
+    private boolean isStreaming(String configFile) throws IOException, ParseException {
+        try (FileReader reader = new FileReader(configFile)) {
+            JSONObject jsonObject = (JSONObject) (new JSONParser().parse(reader));
+            return Boolean.TRUE.equals(jsonObject.get("streaming"));
+        }
+    }
+
+    private void storeLinkingToFile(Linking linking, String outFilePath) throws IOException {
         File file = new File(outFilePath);
         Files.createDirectories(Paths.get(file.getParent()));  // create folder if not exists
         try (CSVWriter writer = new CSVWriter(new FileWriter(file),
@@ -98,10 +148,12 @@ public class PPRLAdapter implements RecordLinkageI {
                 CSVWriter.DEFAULT_LINE_END)) {
             String[] header = {"globalID_A", "globalID_B"};
             writer.writeNext(header);
-            for (PersonPair pair : linking) {
+            ColumnarDataset dataSet = linking.getDataSet();
+            int globalID = dataSet.attributeIndex("globalID");
+            for (int i = 0; i < linking.size(); i++) {
                 String[] nextLine = {
-                        pair.getA().getAttributeValue("globalID"),
-                        pair.getB().getAttributeValue("globalID")
+                        dataSet.getValue(linking.getA(i), globalID),
+                        dataSet.getValue(linking.getB(i), globalID)
                 };
                 writer.writeNext(nextLine);
             }
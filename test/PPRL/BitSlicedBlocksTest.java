@@ -0,0 +1,62 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BitSlicedBlocksTest {
+
+    @Test
+    public void testSlicedIntersectionsAndLinkingsEqualRowWise() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(1_000, 5)).toDataset();
+        EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 500, 10);
+        Encoder encoder = new Encoder(dataSet, encoderParams, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        FilterSlab filters = encoder.getFilterSlab();
+        int sourceA = dataSet.sourceCode("A"), sourceB = dataSet.sourceCode("B");
+
+        BlockingIndex unblocked = BlockingIndex.singleBlock("DUMMY_VALUE", dataSet.size());
+        BitSlicedBlocks slicedBlocks = new BitSlicedBlocks(unblocked, filters, dataSet, sourceA, sourceB, false);
+        int[] recordsB = slicedBlocks.getRecords(0, sourceB);
+        assertNotNull(recordsB);
+        int[] positions = new int[filters.getHashAreaSize()], intersections = new int[recordsB.length];
+        for (int a : dataSet.getSourcePartition("A")) {
+            int cardinality = BitSlicedBlocks.getPositions(filters, a, positions);
+            assertEquals(filters.getCardinality(a), cardinality);
+            slicedBlocks.intersect(0, sourceB, positions, cardinality, new long[32], intersections);
+            for (int i = 0; i < recordsB.length; i++) {
+                assertEquals(filters.intersectionCardinality(a, recordsB[i]), intersections[i]);
+            }
+        }
+
+        // most of these blocks are too small to be sliced, so both kinds of blocks are compared
+        BlockingIndex blocked = BlockingIndex.build(dataSet.size(), record -> new String[]{"k" + record % 500 % 40,
+                record % 500 < 200 ? "large" : "small" + record % 7}, false);
+        BitSlicedBlocks blockedSlices = new BitSlicedBlocks(blocked, filters, dataSet, sourceA, sourceB, false);
+        int sliced = 0;
+        for (int block = 0; block < blocked.numberOfBlocks(); block++) {
+            if (blockedSlices.getRecords(block, sourceB) != null) sliced++;
+        }
+        assertTrue(sliced > 0 && sliced < blocked.numberOfBlocks());
+        for (BlockingIndex blockingIndex : new BlockingIndex[]{unblocked, blocked}) {
+            for (LinkingMode linkingMode : new LinkingMode[]{LinkingMode.POLYGAMOUS, LinkingMode.SEMI_MONOGAMOUS_LEFT,
+                    LinkingMode.SEMI_MONOGAMOUS_RIGHT}) {
+                Linking rowWise = new Matcher(dataSet, new MatcherParams(linkingMode, true, 0.7), filters, blockingIndex,
+                        "A", "B", false).getLinking();
+                MatcherParams params = new MatcherParams(linkingMode, true, 0.7, null, null, false,
+                        ComparisonStrategy.BIT_SLICED);
+                Linking bitSliced = new Matcher(dataSet, params, filters, blockingIndex, "A", "B", true).getLinking();
+                assertEquals(rowWise.size(), bitSliced.size());
+                for (int i = 0; i < rowWise.size(); i++) {
+                    assertEquals(rowWise.getA(i), bitSliced.getA(i));
+                    assertEquals(rowWise.getB(i), bitSliced.getB(i));
+                    assertEquals(rowWise.getSimilarity(i), bitSliced.getSimilarity(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BlockingIndexTest {
+
+    @Test
+    public void testParallelBuildEqualsSequentialBuild() {
+        int size = 50_000;
+        String[][] blockingKeys = new String[size][];
+        Random random = new Random(42);
+        for (int record = 0; record < size; record++) {
+            String key = "k" + random.nextInt(5_000);
+            blockingKeys[record] = new String[]{key, "y" + random.nextInt(100), key};
+        }
+        BlockingIndex sequential = BlockingIndex.build(size, record -> blockingKeys[record], false);
+        BlockingIndex parallel = BlockingIndex.build(size, record -> blockingKeys[record], true);
+        assertEquals(sequential.numberOfBlocks(), parallel.numberOfBlocks());
+        assertEquals(2L * size, sequential.getStatistics().postings()); // duplicate keys of a record count once
+        for (int block = 0; block < parallel.numberOfBlocks(); block++) {
+            int[] records = parallel.getBlock(block);
+            for (int i = 1; i < records.length; i++) {
+                assertTrue(records[i - 1] < records[i]);
+            }
+            assertEquals(sequential.getKey(block), parallel.getKey(block));
+            assertArrayEquals(sequential.getBlock(block), records);
+        }
+        for (int record = 0; record < size; record += 97) {
+            assertArrayEquals(sequential.blocksOf(record), parallel.blocksOf(record));
+        }
+    }
+
+    @Test
+    public void testPurgedIndexKeepsSmallBlocks() {
+        String[][] blockingKeys = {{"a", "b"}, {"a"}, {"a", "c"}, {"c"}};
+        BlockingIndex index = BlockingIndex.build(blockingKeys.length, record -> blockingKeys[record], false);
+        BlockingIndex purged = index.withoutBlocksLargerThan(2);
+        assertEquals(2, purged.numberOfBlocks());
+        assertEquals("b", purged.getKey(0));
+        assertArrayEquals(new int[]{2, 3}, purged.getBlock(1));
+        assertEquals(-1, purged.firstCommonBlock(0, 1));
+        assertEquals(1, purged.firstCommonBlock(2, 3));
+        assertArrayEquals(new int[]{1}, purged.blocksOf(2));
+    }
+}
@@ -0,0 +1,131 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterStoreTest {
+
+    private static final EncoderParams PARAMETERS = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1",
+            "MD5", true, "seed", 500, 10);
+
+    @Test
+    public void testWriteAndReopen() throws Exception {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(200, 2)).toDataset();
+        Path folder = Files.createTempDirectory("bloom-filter-store");
+        try {
+            Encoder encoder = new Encoder(dataSet, PARAMETERS, folder.toString());
+            encoder.createPbmIfNotExist(true);
+            BloomFilter[] filters = encoder.getBloomFilters();
+            String[] ids = new String[dataSet.size()];
+            long[] contentHashes = new long[dataSet.size()];
+            for (int record = 0; record < dataSet.size(); record++) {
+                ids[record] = dataSet.getValue(record, dataSet.attributeIndex("localID"));
+                contentHashes[record] = encoder.contentHash(dataSet, record);
+            }
+            Path file = folder.resolve("store");
+            BloomFilterStore.write(file, PARAMETERS, ids, filters, contentHashes);
+
+            BloomFilterStore store = BloomFilterStore.open(file);
+            assertTrue(store.matches(PARAMETERS));
+            assertFalse(store.matches(new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true,
+                    "other seed", 500, 10)));
+            assertEquals(dataSet.size(), store.size());
+            assertEquals(-1, store.indexOf("not a localID"));
+            FilterSlab slab = new FilterSlab(PARAMETERS.l(), dataSet.size());
+            for (int record = 0; record < dataSet.size(); record++) {
+                int index = store.indexOf(ids[record]);
+                assertEquals(ids[record], store.getId(index));
+                assertEquals(contentHashes[record], store.getContentHash(index));
+                assertEquals(filters[record].getCardinality(), store.getCardinality(index));
+                assertArrayEquals(filters[record].getWords(), store.get(index).getWords());
+                assertArrayEquals(filters[record].getWords(), store.asMap().get(ids[record]).getWords());
+                store.copyTo(index, slab, record);
+                assertArrayEquals(filters[record].getWords(), slab.get(record).getWords());
+                assertEquals(filters[record].getCardinality(), slab.getCardinality(record));
+            }
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void testEncoderOverwritesMismatchingAndOldStorageFiles() throws Exception {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(200, 2)).toDataset();
+        Path folder = Files.createTempDirectory("bloom-filter-store");
+        try {
+            Encoder encoder = new Encoder(dataSet, PARAMETERS, folder.toString());
+            Path file = folder.resolve(encoder.getFingerprint());
+            encoder.createPbmIfNotExist(false);
+            assertNull(encoder.store);
+            assertTrue(BloomFilterStore.open(file).matches(PARAMETERS));
+            FilterSlab expected = encoder.getFilterSlab();
+
+            // an unchanged dataset is served from the storage file
+            Encoder reopened = new Encoder(dataSet, PARAMETERS, folder.toString());
+            reopened.createPbmIfNotExist(false);
+            assertNotNull(reopened.store);
+            assertSlabEquals(expected, reopened.getFilterSlab());
+
+            // a store whose header does not match the parameters is rewritten
+            EncoderParams otherParameters = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true,
+                    "seed", 500, 12);
+            BloomFilterStore.write(file, otherParameters, new String[0], new BloomFilter[0], new long[0]);
+            assertFalse(BloomFilterStore.open(file).matches(PARAMETERS));
+            Encoder mismatched = new Encoder(dataSet, PARAMETERS, folder.toString());
+            mismatched.createPbmIfNotExist(false);
+            assertNull(mismatched.store);
+            assertTrue(BloomFilterStore.open(file).matches(PARAMETERS));
+            assertSlabEquals(expected, mismatched.getFilterSlab());
+
+            // a file in the old serialized format is overwritten
+            Map<String, BloomFilter> oldFormat = new HashMap<>();
+            oldFormat.put("0", new BloomFilter(PARAMETERS.l(), PARAMETERS.k(), PARAMETERS.hashingMode(),
+                    PARAMETERS.tokenSalting(), PARAMETERS.h1(), PARAMETERS.h2()));
+            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(file))) {
+                out.writeObject(oldFormat);
+            }
+            Encoder old = new Encoder(dataSet, PARAMETERS, folder.toString());
+            old.createPbmIfNotExist(false);
+            assertNull(old.store);
+            BloomFilterStore rewritten = BloomFilterStore.open(file);
+            assertTrue(rewritten.matches(PARAMETERS));
+            assertEquals(dataSet.size(), rewritten.size());
+            Encoder afterRewrite = new Encoder(dataSet, PARAMETERS, folder.toString());
+            afterRewrite.createPbmIfNotExist(false);
+            assertNotNull(afterRewrite.store);
+            assertSlabEquals(expected, afterRewrite.getFilterSlab());
+        } finally {
+            delete(folder);
+        }
+    }
+
+    private static void assertSlabEquals(FilterSlab expected, FilterSlab actual) {
+        assertEquals(expected.size(), actual.size());
+        assertArrayEquals(expected.words, actual.words);
+        assertArrayEquals(expected.cardinalities, actual.cardinalities);
+    }
+
+    private static void delete(Path folder) throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest {
+
+    @Test
+    public void testSimilaritiesMatchBitwiseDefinition() {
+        Random random = new Random(42);
+        for (int l : new int[]{1, 63, 64, 65, 500, 1024}) {
+            for (int round = 0; round < 50; round++) {
+                BloomFilter x = randomFilter(random, l);
+                BloomFilter y = randomFilter(random, l);
+                boolean[] a = x.getHashArea();
+                boolean[] b = y.getHashArea();
+                int intersect = 0, union = 0, sizeX = 0, sizeY = 0;
+                for (int i = 0; i < l; i++) {
+                    if (a[i] && b[i]) intersect++;
+                    if (a[i] || b[i]) union++;
+                    if (a[i]) sizeX++;
+                    if (b[i]) sizeY++;
+                }
+                assertEquals(sizeX, x.getCardinality());
+                assertEquals(sizeY, y.getCardinality());
+                assertEquals(1.0 * intersect / union, x.computeJaccardSimilarity(y));
+                assertEquals(2.0 * intersect / (sizeX + sizeY), x.computeDiceSimilarity(y));
+                FilterSlab slab = FilterSlab.of(new BloomFilter[]{x, y});
+                assertEquals(x.computeJaccardSimilarity(y), slab.computeJaccardSimilarity(0, 1));
+                assertEquals(x.computeDiceSimilarity(y), slab.computeDiceSimilarity(1, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testOneVsManyKernelEqualsPairwiseSimilarity() {
+        Random random = new Random(42);
+        BloomFilter[] bloomFilters = new BloomFilter[101];
+        for (int i = 0; i < bloomFilters.length; i++) bloomFilters[i] = randomFilter(random, 500);
+        FilterSlab slab = FilterSlab.of(bloomFilters);
+        int[] candidates = random.ints(51, 0, bloomFilters.length).toArray();
+        double[] similarities = new double[candidates.length];
+        slab.computeJaccardSimilarities(0, candidates, 2, candidates.length, similarities); // odd number of candidates
+        for (int i = 2; i < candidates.length; i++) {
+            assertEquals(slab.computeJaccardSimilarity(0, candidates[i]), similarities[i - 2]);
+        }
+        int[] matches = new int[candidates.length];
+        int found = slab.filterJaccardSimilarities(0, candidates, 0, candidates.length, 0.3, matches, similarities);
+        int expected = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            double similarity = slab.computeJaccardSimilarity(0, candidates[i]);
+            if (similarity < 0.3) continue;
+            assertEquals(i, matches[expected]);
+            assertEquals(similarity, similarities[expected++]);
+        }
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testThresholdAwareSimilarityKeepsExactlyThePairsReachingT() {
+        Random random = new Random(42);
+        BloomFilter[] bloomFilters = new BloomFilter[60];
+        for (int i = 0; i < bloomFilters.length; i++) bloomFilters[i] = randomFilter(random, 1 + random.nextInt(1500));
+        bloomFilters[0] = new BloomFilter(bloomFilters[0].getHashAreaSize(), 10, HashingMode.DOUBLE_HASHING, "a", "SHA-1", "MD5");
+        int[] candidates = new int[bloomFilters.length];
+        double[] similarities = new double[candidates.length];
+        int[] matches = new int[candidates.length];
+        for (int query = 0; query < bloomFilters.length; query++) {
+            BloomFilter[] sameSize = new BloomFilter[bloomFilters.length];
+            for (int i = 0; i < sameSize.length; i++) {
+                sameSize[i] = i == query || random.nextInt(4) == 0 ? bloomFilters[query] : randomFilter(random, bloomFilters[query].getHashAreaSize());
+            }
+            FilterSlab slab = FilterSlab.of(sameSize);
+            for (double t : new double[]{0.0, 0.2, 1.0 / 3, 0.5, 0.7, 0.9, 1.0}) {
+                int size = 0;
+                for (int other = 0; other < sameSize.length; other++) {
+                    double similarity = slab.computeJaccardSimilarity(query, other);
+                    boolean reaches = similarity >= t;
+                    if (reaches) {
+                        assertTrue(FilterSlab.mayReachJaccard(slab.getCardinality(query), slab.getCardinality(other), t));
+                        assertEquals(similarity, slab.computeJaccardSimilarity(query, other, t));
+                    } else {
+                        assertTrue(slab.computeJaccardSimilarity(query, other, t) < t);
+                    }
+                    if (FilterSlab.mayReachJaccard(slab.getCardinality(query), slab.getCardinality(other), t)) {
+                        candidates[size++] = other;
+                    }
+                }
+                int found = slab.filterJaccardSimilarities(query, candidates, 0, size, t, matches, similarities);
+                int expected = 0;
+                for (int i = 0; i < size; i++) {
+                    if (!(slab.computeJaccardSimilarity(query, candidates[i]) >= t)) continue;
+                    assertEquals(i, matches[expected]);
+                    assertEquals(slab.computeJaccardSimilarity(query, candidates[i]), similarities[expected++]);
+                }
+                assertEquals(expected, found);
+            }
+        }
+    }
+
+    private static BloomFilter randomFilter(Random random, int l) {
+        BloomFilter bf = new BloomFilter(l, 10, HashingMode.DOUBLE_HASHING, "a", "SHA-1", "MD5");
+        int bits = 1 + random.nextInt(l);
+        for (int i = 0; i < bits; i++) {
+            bf.set(random.nextInt(l));
+        }
+        return bf;
+    }
+}
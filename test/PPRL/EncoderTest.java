@@ -0,0 +1,127 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncoderTest {
+
+    private static final EncoderParams PARAMETERS = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1",
+            "MD5", true, "seed", 500, 10);
+
+    @Test
+    public void testUnchangedRecordsAreReused() throws Exception {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(300, 4));
+        ColumnarDataset dataSet = generator.toDataset();
+        Path folder = Files.createTempDirectory("encoder");
+        try {
+            Encoder first = new Encoder(dataSet, PARAMETERS, folder.toString());
+            first.createPbmIfNotExist(false);
+            FilterSlab expected = first.getFilterSlab();
+
+            // an unchanged dataset is served from the storage file without encoding any record
+            Encoder unchanged = new Encoder(generator.toDataset(), PARAMETERS, folder.toString());
+            unchanged.createPbmIfNotExist(false);
+            assertNotNull(unchanged.store);
+            assertNull(unchanged.bloomFilters);
+            assertArrayEquals(expected.words, unchanged.getFilterSlab().words);
+
+            // of a dataset with one edited record, only that record is encoded
+            int edited = 42;
+            int attribute = dataSet.attributeIndex(firstEncodedAttribute());
+            ColumnarDataset.Builder builder = new ColumnarDataset.Builder();
+            for (int record = 0; record < generator.size(); record++) {
+                String[] values = generator.getRecord(record);
+                if (record == edited) values[attribute] = values[attribute] + "X";
+                builder.add(values);
+            }
+            ColumnarDataset editedDataSet = builder.build();
+            Encoder incremental = new Encoder(editedDataSet, PARAMETERS, folder.toString());
+            incremental.createPbmIfNotExist(false);
+            assertNull(incremental.store);
+            assertEquals(dataSet.size() - 1, incremental.reusedCount);
+            FilterSlab actual = incremental.getFilterSlab();
+            Encoder recreated = new Encoder(editedDataSet, PARAMETERS, folder.toString());
+            recreated.createPbmIfNotExist(true);
+            assertArrayEquals(recreated.getFilterSlab().words, actual.words);
+            for (int record = 0; record < dataSet.size(); record++) {
+                assertEquals(record != edited, Arrays.equals(expected.get(record).getWords(),
+                        actual.get(record).getWords()));
+            }
+
+            // the edit was saved, so the next run serves the edited dataset from the storage file
+            Encoder afterEdit = new Encoder(editedDataSet, PARAMETERS, folder.toString());
+            afterEdit.createPbmIfNotExist(false);
+            assertNotNull(afterEdit.store);
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void testChangedParametersInvalidateStoredFilters() throws Exception {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(100, 4)).toDataset();
+        Path folder = Files.createTempDirectory("encoder");
+        try {
+            Encoder original = new Encoder(dataSet, PARAMETERS, folder.toString());
+            original.createPbmIfNotExist(false);
+            List<EncoderParams> changed = List.of(
+                    new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 512, 10),
+                    new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 500, 11),
+                    new EncoderParams(HashingMode.DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 500, 10),
+                    new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "salt", 500, 10));
+            Set<String> fingerprints = new HashSet<>();
+            fingerprints.add(original.getFingerprint());
+            for (EncoderParams parameters : changed) {
+                Encoder encoder = new Encoder(dataSet, parameters, folder.toString());
+                assertTrue(fingerprints.add(encoder.getFingerprint()));
+                assertNewlyEncoded(encoder);
+            }
+            String attribute = firstEncodedAttribute();
+            Person.attributeWeights.put(attribute, Person.attributeWeights.get(attribute) + 1.0);
+            Encoder reweighted = new Encoder(dataSet, PARAMETERS, folder.toString());
+            assertTrue(fingerprints.add(reweighted.getFingerprint()));
+            assertNewlyEncoded(reweighted);
+        } finally {
+            Launcher.setPersonAttributeWeights();
+            delete(folder);
+        }
+    }
+
+    private static void assertNewlyEncoded(Encoder encoder) {
+        encoder.createPbmIfNotExist(false);
+        assertNull(encoder.store);
+        assertEquals(0, encoder.reusedCount);
+        assertEquals(encoder.dataSet.size(), encoder.getFilterSlab().size());
+    }
+
+    private static String firstEncodedAttribute() {
+        return Arrays.stream(Person.attributeNames)
+                .filter(name -> Person.attributeWeights.get(name) != 0.0)
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static void delete(Path folder) throws Exception {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LauncherTest {
+
+    @Test
+    public void testStreamingEqualsPrepare() throws Exception {
+        ProgressHandler.setQuiet(true);
+        Launcher.setPersonAttributeWeights();
+        Path file = Files.createTempFile("launcher", ".csv");
+        try {
+            new SyntheticDataGenerator(SyntheticDataParams.withDefaults(2_000, 8)).writeCsv(file.toString());
+            EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true,
+                    "seed", 500, 10);
+            String storage = System.getProperty("java.io.tmpdir");
+            MatcherParams[] matcherParams = {
+                    new MatcherParams(LinkingMode.SEMI_MONOGAMOUS_LEFT, true, 0.7),
+                    new MatcherParams(LinkingMode.POLYGAMOUS, true, 0.7, new LshParams(20, 12, 1), null, false,
+                            ComparisonStrategy.ROW_WISE)};
+            for (MatcherParams params : matcherParams) {
+                Launcher launcher = new Launcher(true, true, true, true);
+                launcher.prepare(ColumnarDataset.fromFile(file.toString()), encoderParams, params, storage);
+                Linking expected = launcher.getLinking();
+                Launcher streaming = new Launcher(true, true, true, true);
+                streaming.streamingBatchSize = 700; // several batches, the last one smaller
+                streaming.prepareStreaming(file.toString(), encoderParams, params, storage);
+                Linking actual = streaming.getLinking();
+                assertTrue(expected.size() > 0);
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(expected.getPair(i), actual.getPair(i));
+                    assertEquals(expected.getSimilarity(i), actual.getSimilarity(i));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
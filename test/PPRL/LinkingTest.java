@@ -0,0 +1,31 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LinkingTest {
+
+    @Test
+    public void testBuilderSortsAndRemovesDuplicates() {
+        Linking.Builder first = new Linking.Builder();
+        first.add(Linking.pack(7, 2), 0.9);
+        first.add(Linking.pack(1, 5), 0.8);
+        Linking.Builder second = new Linking.Builder();
+        for (int b = 100; b < 140; b++) second.add(Linking.pack(3, b), b / 1000.0);
+        second.add(Linking.pack(7, 2), 0.9);
+        first.addAll(second);
+        Linking linking = first.build(null);
+        assertEquals(42, linking.size());
+        assertEquals(1, linking.getA(0));
+        assertEquals(5, linking.getB(0));
+        assertEquals(0.8, linking.getSimilarity(0));
+        assertEquals(0.139, linking.getSimilarity(40));
+        assertEquals(0.9, linking.getSimilarity(41));
+        assertTrue(linking.contains(7, 2));
+        assertTrue(linking.contains(2, 7)); // undirected
+        assertFalse(linking.contains(7, 5));
+    }
+}
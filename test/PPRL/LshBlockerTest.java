@@ -0,0 +1,73 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LshBlockerTest {
+
+    @Test
+    public void testSampledBitsAreDistinctPerBand() {
+        for (int hashAreaSize : new int[]{16, 100, 1024}) {
+            LshBlocker lshBlocker = new LshBlocker(new LshParams(50, 16, 7), hashAreaSize);
+            for (int[] band : lshBlocker.sampledBits) {
+                assertEquals(band.length, Arrays.stream(band).distinct().count());
+                assertTrue(Arrays.stream(band).allMatch(position -> position >= 0 && position < hashAreaSize));
+            }
+        }
+        // all positions of the hash area
+        int[] band = new LshBlocker(new LshParams(1, 64, 7), 64).sampledBits[0];
+        assertEquals(64, Arrays.stream(band).distinct().count());
+        assertThrows(IllegalArgumentException.class, () -> new LshBlocker(new LshParams(1, 20, 7), 16));
+    }
+
+    @Test
+    public void testNearDuplicatesCollideAndDistantFiltersMostlyDoNot() {
+        int l = 1024;
+        LshBlocker lshBlocker = new LshBlocker(new LshParams(20, 12, 3), l);
+        Random random = new Random(5);
+        int nearCollisions = 0, distantCollisions = 0, trials = 200;
+        for (int trial = 0; trial < trials; trial++) {
+            BloomFilter filter = randomFilter(random, l);
+            BloomFilter near = copy(filter);
+            for (int flip = 0; flip < l / 50; flip++) near.words[random.nextInt(l) >>> 6] ^= 1L << random.nextInt(64);
+            if (shareKey(lshBlocker, filter, near)) nearCollisions++;
+            if (shareKey(lshBlocker, filter, randomFilter(random, l))) distantCollisions++;
+        }
+        // about 2% of the bits differ between near duplicates, and about 42% between independent filters of density 0.3
+        assertTrue(lshBlocker.candidateProbability(l / 50) > 0.99);
+        assertTrue(lshBlocker.candidateProbability(42 * l / 100) < 0.05);
+        assertTrue(nearCollisions >= trials * 95 / 100);
+        assertTrue(distantCollisions <= trials / 10);
+    }
+
+    private static boolean shareKey(LshBlocker lshBlocker, BloomFilter x, BloomFilter y) {
+        String[] keysX = lshBlocker.getBlockingKeys(x), keysY = lshBlocker.getBlockingKeys(y);
+        for (int band = 0; band < keysX.length; band++) {
+            if (keysX[band].equals(keysY[band])) return true;
+        }
+        return false;
+    }
+
+    private static BloomFilter randomFilter(Random random, int l) {
+        BloomFilter bf = new BloomFilter();
+        bf.hashAreaSize = l;
+        bf.words = new long[BloomFilter.wordsFor(l)];
+        for (int position = 0; position < l; position++) {
+            if (random.nextDouble() < 0.3) bf.words[position >>> 6] |= 1L << position;
+        }
+        return bf;
+    }
+
+    private static BloomFilter copy(BloomFilter filter) {
+        BloomFilter bf = new BloomFilter();
+        bf.hashAreaSize = filter.hashAreaSize;
+        bf.words = filter.words.clone();
+        return bf;
+    }
+}
@@ -0,0 +1,187 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MatcherTest {
+
+    @Test
+    public void testSemiMonogamousTiesAcrossBlocksDoNotDependOnParallelism() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        // enough records for the parallel index build to use several chunks
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(10_000, 7)).toDataset();
+        EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 500, 10);
+        Encoder encoder = new Encoder(dataSet, encoderParams, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        FilterSlab filters = encoder.getFilterSlab();
+        int[] recordsA = dataSet.getSourcePartition("A"), recordsB = dataSet.getSourcePartition("B");
+
+        // record a of source A ties between b1 and b2 of source B, which it shares a different block with, and record
+        // b of source B likewise between a1 and a2
+        int a = recordsA[0], b1 = recordsB[0], b2 = recordsB[1];
+        int b = recordsB[2], a1 = recordsA[1], a2 = recordsA[2];
+        copyFilter(filters, a, b1);
+        copyFilter(filters, a, b2);
+        copyFilter(filters, b, a1);
+        copyFilter(filters, b, a2);
+        IntFunction<String[]> keys = record -> {
+            if (record == a) return new String[]{"tie-x", "tie-y"};
+            if (record == b1) return new String[]{"tie-y"};
+            if (record == b2) return new String[]{"tie-x"};
+            if (record == b) return new String[]{"tie-u", "tie-v"};
+            if (record == a1) return new String[]{"tie-v"};
+            if (record == a2) return new String[]{"tie-u"};
+            return new String[]{"k" + record % 97};
+        };
+
+        List<Linking> linkings = new ArrayList<>();
+        for (boolean parallelBuild : new boolean[]{false, true}) {
+            BlockingIndex blockingIndex = BlockingIndex.build(dataSet.size(), keys, parallelBuild);
+            assertNotEquals(blockingIndex.firstCommonBlock(a, b1), blockingIndex.firstCommonBlock(a, b2));
+            assertNotEquals(blockingIndex.firstCommonBlock(b, a1), blockingIndex.firstCommonBlock(b, a2));
+            // of equally similar matches, the one compared in the last block wins
+            int winnerOfA = blockingIndex.firstCommonBlock(a, b1) > blockingIndex.firstCommonBlock(a, b2) ? b1 : b2;
+            int winnerOfB = blockingIndex.firstCommonBlock(b, a1) > blockingIndex.firstCommonBlock(b, a2) ? a1 : a2;
+            for (boolean parallelMatch : new boolean[]{false, true}) {
+                Linking left = new Matcher(dataSet, new MatcherParams(LinkingMode.SEMI_MONOGAMOUS_LEFT, true, 0.7),
+                        filters, blockingIndex, "A", "B", parallelMatch).getLinking();
+                assertEquals(1, countPairsOf(left, a, true));
+                assertEquals(1, countPairsOf(left, b1, false) + countPairsOf(left, b2, false));
+                assertTrue(left.contains(a, winnerOfA));
+                Linking right = new Matcher(dataSet, new MatcherParams(LinkingMode.SEMI_MONOGAMOUS_RIGHT, true, 0.7),
+                        filters, blockingIndex, "A", "B", parallelMatch).getLinking();
+                assertEquals(1, countPairsOf(right, b, false));
+                assertTrue(right.contains(winnerOfB, b));
+                linkings.add(left);
+                linkings.add(right);
+            }
+        }
+        for (int i = 2; i < linkings.size(); i++) {
+            Linking expected = linkings.get(i % 2), actual = linkings.get(i);
+            assertEquals(expected.size(), actual.size());
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(expected.getPair(j), actual.getPair(j));
+                assertEquals(expected.getSimilarity(j), actual.getSimilarity(j));
+            }
+        }
+    }
+
+    @Test
+    public void testStableMarriageEqualsReferenceProposalLoop() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(2_000, 11)).toDataset();
+        EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 500, 10);
+        Encoder encoder = new Encoder(dataSet, encoderParams, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        FilterSlab filters = encoder.getFilterSlab();
+        // force ties: two in three records share the filter of one of four templates
+        for (int record = 4; record < dataSet.size(); record++) {
+            if (record % 3 != 0) copyFilter(filters, record % 4, record);
+        }
+        int sourceA = dataSet.sourceCode("A"), sourceB = dataSet.sourceCode("B");
+        // large blocks make records propose to more than the first chunks of their preference lists, and the last
+        // block has far fewer records of B than of A, so proposers run out of records to propose to
+        BlockingIndex blockingIndex = BlockingIndex.build(dataSet.size(), record -> {
+            boolean few = dataSet.getSourceCode(record) == sourceA ? record % 5 == 0 : record % 97 == 0;
+            return few ? new String[]{"b" + record % 12, "few"} : new String[]{"b" + record % 12};
+        }, false);
+
+        Map<Long, Double> expected = new TreeMap<>();
+        int[] maxProposals = {0};
+        boolean exhausted = false;
+        int[] postings = blockingIndex.getPostings();
+        for (int block = 0; block < blockingIndex.numberOfBlocks(); block++) {
+            int[] records = Arrays.copyOfRange(postings, blockingIndex.start(block), blockingIndex.end(block));
+            int[] A = Arrays.stream(records).filter(r -> dataSet.getSourceCode(r) == sourceA).toArray();
+            int[] B = Arrays.stream(records).filter(r -> dataSet.getSourceCode(r) == sourceB).toArray();
+            exhausted |= referenceStableMarriage(A, B, filters, expected, maxProposals);
+        }
+        assertTrue(exhausted);
+        assertTrue(maxProposals[0] > 16 + 32);
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            Linking linking = new Matcher(dataSet, new MatcherParams(LinkingMode.STABLE_MARRIAGE, true, 0.7), filters,
+                    blockingIndex, "A", "B", parallel).getLinking();
+            assertEquals(expected.size(), linking.size());
+            for (int i = 0; i < linking.size(); i++) {
+                long key = (long) linking.getA(i) << 32 | linking.getB(i);
+                assertTrue(expected.containsKey(key));
+                assertEquals(expected.get(key), linking.getSimilarity(i));
+            }
+        }
+    }
+
+    /**
+     * The proposal loop of stable marriage as it was before the preference lists: the free record of A that comes first
+     * in the block proposes to its favorite record of B not proposed to yet, the first in the block of equally similar
+     * ones, found by a scan over B. Adds the pairs of the block to pairs.
+     * @return whether linking stopped because the proposer had proposed to all records of B.
+     */
+    private static boolean referenceStableMarriage(int[] A, int[] B, FilterSlab filters, Map<Long, Double> pairs,
+                                                   int[] maxProposals) {
+        int[] partnerOfB = new int[B.length];
+        Arrays.fill(partnerOfB, -1);
+        boolean[] paired = new boolean[A.length];
+        boolean[][] hasProposedTo = new boolean[A.length][B.length];
+        int[] proposals = new int[A.length];
+        boolean exhausted = false;
+        while (true) {
+            int a = 0;
+            while (a < A.length && paired[a]) a++;
+            if (a == A.length || B.length == 0) break;
+            int favorite = -1;
+            double similarity = 0.0;
+            for (int b = 0; b < B.length; b++) {
+                if (hasProposedTo[a][b]) continue;
+                double s = filters.computeJaccardSimilarity(A[a], B[b]);
+                if (favorite < 0 || s > similarity) {
+                    favorite = b;
+                    similarity = s;
+                }
+            }
+            if (favorite < 0) {
+                exhausted = true;
+                break;
+            }
+            hasProposedTo[a][favorite] = true;
+            maxProposals[0] = Math.max(maxProposals[0], ++proposals[a]);
+            int current = partnerOfB[favorite];
+            if (current < 0 || similarity >= filters.computeJaccardSimilarity(A[current], B[favorite])) {
+                if (current >= 0) paired[current] = false;
+                partnerOfB[favorite] = a;
+                paired[a] = true;
+            }
+        }
+        for (int b = 0; b < B.length; b++) {
+            if (partnerOfB[b] >= 0) {
+                pairs.put((long) A[partnerOfB[b]] << 32 | B[b], filters.computeJaccardSimilarity(A[partnerOfB[b]], B[b]));
+            }
+        }
+        return exhausted;
+    }
+
+    private static void copyFilter(FilterSlab filters, int from, int to) {
+        System.arraycopy(filters.words, filters.offset(from), filters.words, filters.offset(to), filters.wordsPerFilter);
+        filters.cardinalities[to] = filters.cardinalities[from];
+    }
+
+    private static int countPairsOf(Linking linking, int record, boolean inSourceA) {
+        int count = 0;
+        for (int i = 0; i < linking.size(); i++) {
+            if ((inSourceA ? linking.getA(i) : linking.getB(i)) == record) count++;
+        }
+        return count;
+    }
+}
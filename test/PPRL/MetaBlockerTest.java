@@ -0,0 +1,86 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MetaBlockerTest {
+
+    /*
+     * Records 0, 1 and 5 of source A, 2, 3 and 4 of source B, matching by globalID 0-2, 1-3 and 5-4. Block "all" holds
+     * every record and is purged at a maximum block size of 5, which leaves
+     *   x = {0, 1, 2, 3}, y = {0, 2}, z = {1, 3, 4, 5},
+     * so records 0 to 3 are in two blocks and records 4 and 5 in one. The edges of the blocking graph are
+     *   pair    common blocks   CBS   JS
+     *   (0, 2)  x, y            2     2 / (2 + 2 - 2) = 1
+     *   (0, 3)  x               1     1 / (2 + 2 - 1) = 1/3
+     *   (1, 2)  x               1     1/3
+     *   (1, 3)  x, z            2     1
+     *   (1, 4)  z               1     1 / (2 + 1 - 1) = 1/2
+     *   (5, 3)  z               1     1/2
+     *   (5, 4)  z               1     1 / (1 + 1 - 1) = 1
+     * with a mean weight of 9/7 for CBS and of 14/3 / 7 = 2/3 for JS.
+     */
+    private static final String[][] KEYS = {{"all", "x", "y"}, {"all", "x", "z"}, {"all", "x", "y"},
+            {"all", "x", "z"}, {"all", "z"}, {"all", "z"}};
+    private static final Map<String, Integer> BLOCK_SIZES = Map.of("x", 4, "y", 2, "z", 4);
+
+    @Test
+    public void testPurgingAndPruningOfSmallGraph() {
+        Launcher.setPersonAttributeWeights();
+        ColumnarDataset dataSet = ColumnarDataset.of(person("A", "g1"), person("A", "g2"), person("B", "g1"),
+                person("B", "g2"), person("B", "g3"), person("A", "g3"));
+        IntFunction<String[]> keys = record -> KEYS[record];
+        BlockingIndex blockingIndex = BlockingIndex.build(dataSet.size(), keys, false);
+        for (boolean parallel : new boolean[]{false, true}) {
+            MetaBlocker purgeOnly = new MetaBlocker(new MetaBlockingParams(null, 0, 5), dataSet, "A", "B", parallel);
+            BlockingIndex purged = purgeOnly.purge(blockingIndex);
+            assertEquals(3, purged.numberOfBlocks());
+            for (int block = 0; block < purged.numberOfBlocks(); block++) {
+                assertEquals(BLOCK_SIZES.get(purged.getKey(block)), purged.blockSize(block));
+            }
+            assertNull(purgeOnly.getCandidatePairs(purged));
+
+            // mean weight 9/7: only the pairs sharing two blocks remain
+            long[] commonBlocks = getCandidatePairs(WeightingScheme.COMMON_BLOCKS, 0, dataSet, purged, parallel);
+            assertArrayEquals(new long[]{Matcher.pair(0, 2), Matcher.pair(1, 3)}, commonBlocks);
+            // mean weight 2/3: (5, 4) is kept as well, as neither record is in another block
+            long[] jaccard = getCandidatePairs(WeightingScheme.JACCARD, 0, dataSet, purged, parallel);
+            assertArrayEquals(new long[]{Matcher.pair(0, 2), Matcher.pair(1, 3), Matcher.pair(5, 4)}, jaccard);
+            // a minimum weight of 1/2 keeps the pairs of weight 1/2 and drops those of 1/3
+            long[] minimum = getCandidatePairs(WeightingScheme.JACCARD, 0.5, dataSet, purged, parallel);
+            assertArrayEquals(new long[]{Matcher.pair(0, 2), Matcher.pair(1, 3), Matcher.pair(1, 4),
+                    Matcher.pair(5, 3), Matcher.pair(5, 4)}, minimum);
+            // without purging, block "all" adds one common block to each edge and the edges (0, 4) and (5, 2) of weight
+            // 1, for a CBS mean of 18/9 = 2, so only those two are pruned
+            long[] unpurged = getCandidatePairs(WeightingScheme.COMMON_BLOCKS, 0, dataSet, blockingIndex, parallel);
+            assertArrayEquals(new long[]{Matcher.pair(0, 2), Matcher.pair(0, 3), Matcher.pair(1, 2),
+                    Matcher.pair(1, 3), Matcher.pair(1, 4), Matcher.pair(5, 3), Matcher.pair(5, 4)}, unpurged);
+
+            MetaBlocker.Report report = purgeOnly.evaluate(blockingIndex, purged, commonBlocks);
+            assertEquals(new MetaBlocker.Report(3, 3, 1, 3, 2, 2), report);
+            assertEquals(1.0, purgeOnly.evaluate(blockingIndex, purged, jaccard).recall());
+        }
+    }
+
+    private static long[] getCandidatePairs(WeightingScheme weightingScheme, double minEdgeWeight,
+                                            ColumnarDataset dataSet, BlockingIndex blockingIndex, boolean parallel) {
+        MetaBlockingParams params = new MetaBlockingParams(weightingScheme, minEdgeWeight, 0);
+        return new MetaBlocker(params, dataSet, "A", "B", parallel).getCandidatePairs(blockingIndex);
+    }
+
+    private static Person person(String sourceID, String globalID) {
+        String[] values = new String[Person.attributeNames.length];
+        Arrays.fill(values, "");
+        values[0] = sourceID;
+        values[1] = globalID;
+        values[2] = sourceID + globalID;
+        return new Person(values);
+    }
+}
@@ -0,0 +1,65 @@
+package PPRL;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelCsvReaderTest {
+
+    // fields as written to the file, with quoted separators, escaped quotes and line breaks inside quotes
+    private static final String[] FIELDS = {"plain", "", "\"with, separator\"", "\"doubled \"\" quote\"",
+            "\"escaped \\\" quote\"", "\"two\nlines\"", "\"carriage\r\nreturn\"", "\"\"", "Müller", "\"ending in\n\"",
+            "back\\\\slash", "\"a,\"\"b\"\",\nc\""};
+
+    @Test
+    public void testChunkedReadEqualsCsvReader() throws Exception {
+        Random random = new Random(3);
+        StringBuilder csv = new StringBuilder();
+        for (int record = 0; record < 500; record++) {
+            int fields = 1 + random.nextInt(5);
+            for (int field = 0; field < fields; field++) {
+                if (field > 0) csv.append(',');
+                csv.append(FIELDS[random.nextInt(FIELDS.length)]);
+            }
+            if (record < 499) csv.append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+        Path file = Files.createTempFile("parallel-csv-reader", ".csv");
+        try {
+            Files.writeString(file, csv, StandardCharsets.UTF_8);
+            List<String[]> expected = new ArrayList<>();
+            try (CSVReader csvReader = new CSVReader(new InputStreamReader(Files.newInputStream(file),
+                    StandardCharsets.UTF_8))) {
+                String[] values;
+                while ((values = csvReader.readNext()) != null) expected.add(values);
+            }
+            assertEquals(500, expected.size());
+            // chunks of one byte end at every record boundary, so every record straddles a target chunk size
+            for (int chunkSize : new int[]{1, 7, 64, ParallelCsvReader.DEFAULT_CHUNK_SIZE}) {
+                List<String[]> actual = new ParallelCsvReader(file, StandardCharsets.UTF_8, chunkSize).readAll();
+                assertEquals(expected.size(), actual.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(expected.get(i), actual.get(i), "record " + i);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRejectsCharsetsThatAreNotAsciiCompatible() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ParallelCsvReader(Path.of("unused.csv"), StandardCharsets.UTF_16));
+    }
+}
@@ -0,0 +1,74 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrefixFilterTest {
+
+    @Test
+    public void testCandidatesContainAllPairsReachingT() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(2_000, 3)).toDataset();
+        EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 1024, 10);
+        Encoder encoder = new Encoder(dataSet, encoderParams, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        FilterSlab filters = encoder.getFilterSlab();
+        BlockingIndex unblocked = BlockingIndex.singleBlock("DUMMY_VALUE", dataSet.size());
+        BlockingIndex blocked = BlockingIndex.build(dataSet.size(), record -> new String[]{"k" + record % 1_000 % 3}, false);
+        for (double t : new double[]{0.5, 0.7, 0.9}) {
+            for (BlockingIndex blockingIndex : new BlockingIndex[]{unblocked, blocked}) {
+                long[] candidates = new PrefixFilter(filters, dataSet, t, "A", "B", true).getCandidatePairs(blockingIndex);
+                for (int i = 1; i < candidates.length; i++) assertTrue(candidates[i - 1] < candidates[i]);
+                int matches = 0;
+                for (int a : dataSet.getSourcePartition("A")) {
+                    for (int b : dataSet.getSourcePartition("B")) {
+                        boolean candidate = Arrays.binarySearch(candidates, Matcher.pair(a, b)) >= 0;
+                        if (candidate) assertTrue(blockingIndex.firstCommonBlock(a, b) >= 0);
+                        if (filters.computeJaccardSimilarity(a, b) >= t && blockingIndex.firstCommonBlock(a, b) >= 0) {
+                            assertTrue(candidate);
+                            matches++;
+                        }
+                    }
+                }
+                assertTrue(matches > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSemiMonogamousLinkingOfCandidatesBreaksTiesLikeBlocks() {
+        Launcher.setPersonAttributeWeights();
+        ProgressHandler.setQuiet(true);
+        ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(1_000, 7)).toDataset();
+        EncoderParams encoderParams = new EncoderParams(HashingMode.ENHANCED_DOUBLE_HASHING, "SHA-1", "MD5", true, "seed", 1024, 10);
+        Encoder encoder = new Encoder(dataSet, encoderParams, System.getProperty("java.io.tmpdir"));
+        encoder.createPbmIfNotExist(true);
+        FilterSlab filters = encoder.getFilterSlab();
+        // give every tenth record of source A the filter of the one before it, so that records of B have tied matches
+        int[] recordsA = dataSet.getSourcePartition("A");
+        for (int i = 10; i < recordsA.length; i += 10) filters.set(recordsA[i], filters.get(recordsA[i - 1]));
+        // records share up to two blocks, whose order differs from the order of the record IDs
+        BlockingIndex blockingIndex = BlockingIndex.build(dataSet.size(),
+                record -> new String[]{"k" + (7 - record % 1_000 % 7), "m" + record % 1_000 % 3}, false);
+        for (double t : new double[]{0.5, 0.7}) {
+            long[] candidates = new PrefixFilter(filters, dataSet, t, "A", "B", false).getCandidatePairs(blockingIndex);
+            for (LinkingMode linkingMode : new LinkingMode[]{LinkingMode.SEMI_MONOGAMOUS_LEFT,
+                    LinkingMode.SEMI_MONOGAMOUS_RIGHT}) {
+                MatcherParams params = new MatcherParams(linkingMode, true, t);
+                Linking plain = new Matcher(dataSet, params, filters, blockingIndex, "A", "B", false).getLinking();
+                Linking prefix = new Matcher(dataSet, params, filters, blockingIndex, candidates, "A", "B", true)
+                        .getLinking();
+                assertEquals(plain.size(), prefix.size());
+                for (int i = 0; i < plain.size(); i++) {
+                    assertEquals(plain.getA(i), prefix.getA(i));
+                    assertEquals(plain.getB(i), prefix.getB(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressHandlerTest {
+
+    @Test
+    public void testCountsUpdatesOfAllThreads() {
+        boolean quiet = ProgressHandler.isQuiet();
+        ProgressHandler.setQuiet(true);
+        try (ProgressHandler progressHandler = new ProgressHandler(300_000, 1)) {
+            progressHandler.reset();
+            IntStream.range(0, 100_000).parallel().forEach(i -> {
+                progressHandler.updateProgress();
+                progressHandler.updateProgress(1);
+                progressHandler.updateProgress(1L);
+            });
+            assertEquals(300_000, progressHandler.getProgress());
+            progressHandler.reset();
+            assertEquals(0, progressHandler.getProgress());
+        } finally {
+            ProgressHandler.setQuiet(quiet);
+        }
+    }
+
+    @Test
+    public void testQuietModeSchedulesNoReporterAndPrintsNothing() {
+        boolean quiet = ProgressHandler.isQuiet();
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        try {
+            ProgressHandler.setQuiet(true);
+            ProgressHandler progressHandler = new ProgressHandler(10, 1);
+            progressHandler.reset();
+            assertFalse(progressHandler.isReporting());
+            progressHandler.updateProgress(5);
+            progressHandler.report();
+            progressHandler.finish();
+            assertEquals("", printed.toString());
+
+            ProgressHandler.setQuiet(false);
+            progressHandler.reset();
+            assertTrue(progressHandler.isReporting());
+            progressHandler.updateProgress(5);
+            progressHandler.report();
+            progressHandler.finish();
+            assertFalse(progressHandler.isReporting());
+            assertTrue(printed.toString().startsWith("50%"));
+            assertTrue(printed.toString().endsWith("Done." + System.lineSeparator()));
+        } finally {
+            System.setOut(out);
+            ProgressHandler.setQuiet(quiet);
+        }
+    }
+
+    @Test
+    public void testReporterIsCancelledWhenWorkFails() {
+        boolean quiet = ProgressHandler.isQuiet();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream(), true));
+        try {
+            ProgressHandler.setQuiet(false);
+            Launcher.setPersonAttributeWeights();
+            ColumnarDataset dataSet = new SyntheticDataGenerator(SyntheticDataParams.withDefaults(100, 1)).toDataset();
+            Blocker blocker = new Blocker(true, false, false);
+            BlockingKeyEncoder failing = person -> {
+                throw new IllegalStateException("failed");
+            };
+            assertThrows(IllegalStateException.class, () -> blocker.getBlockingIndex(dataSet, failing));
+            assertFalse(blocker.progressHandler.isReporting());
+        } finally {
+            System.setOut(out);
+            ProgressHandler.setQuiet(quiet);
+        }
+    }
+}
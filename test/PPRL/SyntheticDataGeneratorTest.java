@@ -0,0 +1,31 @@
+package PPRL;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SyntheticDataGeneratorTest {
+
+    @Test
+    public void testGeneratorIsDeterministic() {
+        SyntheticDataParams parameters = SyntheticDataParams.withDefaults(10_000, 7);
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(parameters);
+        SyntheticDataGenerator other = new SyntheticDataGenerator(parameters);
+        Set<String> localIDs = new HashSet<>();
+        int duplicates = 0;
+        for (int record = 0; record < generator.size(); record++) {
+            String[] values = generator.getRecord(record);
+            assertEquals(15, values.length);
+            assertArrayEquals(values, other.getRecord(record));
+            assertEquals(record < 5_000 ? "A" : "B", values[0]);
+            assertTrue(localIDs.add(values[2]));
+            if (record >= 5_000 && values[1].equals("G" + (record - 5_000))) duplicates++;
+        }
+        assertEquals(0.5, duplicates / 5_000.0, 0.03);
+    }
+}